@@ -0,0 +1,89 @@
+package org.parttio.vaadinjsloader;
+
+import com.vaadin.flow.server.VaadinRequest;
+import com.vaadin.flow.server.VaadinResponse;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serving cost and bytes on the wire of a classpath resource with and without
+ * content encoding.
+ * <p>
+ * Bytes per response are printed at the end of each trial.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class CompressionBenchmark {
+
+    private static final String LIBRARY = "compression-benchmark";
+    private static final String FILE = "compression-benchmark.js";
+
+    @Param({"identity", "gzip"})
+    public String encoding;
+
+    private Path file;
+    private VaadinRequest request;
+    private VaadinResponse response;
+    private final Stubs.CountingOutputStream body = new Stubs.CountingOutputStream();
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, URISyntaxException {
+        // Next to the benchmark class, so that it can be loaded as a classpath resource
+        file = Path.of(CompressionBenchmark.class.getResource("").toURI()).resolve(FILE);
+        Files.write(file, scriptLike(512 * 1024));
+        JavaResourceHandler.get().register(CompressionBenchmark.class, LIBRARY, FILE);
+
+        request = Stubs.request(JSLoader.PUBLIC_JAVA_RESOURCE_PATH + LIBRARY + "/" + FILE,
+                Map.of("Accept-Encoding", encoding));
+        response = Stubs.response(body);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+        body.count = 0;
+        serve();
+        System.out.println();
+        System.out.println("Bytes on the wire with " + encoding + ": " + body.count);
+    }
+
+    @Benchmark
+    public boolean serve() throws IOException {
+        return JavaResourceHandler.get().handleRequest(null, request, response);
+    }
+
+    /** Compressible content resembling minified JavaScript. */
+    private static byte[] scriptLike(int size) {
+        String[] tokens = {"function ", "return ", "var ", "this.", "prototype", "(", ")", "{", "}", ";", "=", ",", "a", "b", "e", "t", "n"};
+        Random random = new Random(42);
+        StringBuilder sb = new StringBuilder(size);
+        while (sb.length() < size) {
+            sb.append(tokens[random.nextInt(tokens.length)]);
+        }
+        sb.setLength(size);
+        return sb.toString().getBytes();
+    }
+}
@@ -0,0 +1,69 @@
+package org.parttio.vaadinjsloader;
+
+import com.vaadin.flow.component.UI;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Server-side cost of loading a library with many files into a new UI, per
+ * batching mode. {@link JSLoader.Batching#NONE} adds each script and style
+ * sheet through the reflective <code>Page</code> calls, the other modes send
+ * a single invocation of the client-side loader.
+ * <p>
+ * Each operation includes creating the UI, measured alone by {@link #newUI()}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class LoadFilesBenchmark {
+
+    @Param({"NONE", "LIBRARY"})
+    public JSLoader.Batching batching;
+
+    @Param({"1", "20"})
+    public int fileCount;
+
+    private String[] files;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        JSLoader.setBatching(batching);
+        files = new String[fileCount];
+        for (int i = 0; i < fileCount; i++) {
+            files[i] = "dist/file" + i + (i % 4 == 3 ? ".css" : ".js");
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        JSLoader.setBatching(JSLoader.Batching.NONE);
+    }
+
+    @Benchmark
+    public UI newUI() {
+        return TestSession.openUI();
+    }
+
+    @Benchmark
+    public UI loadFiles() {
+        UI ui = TestSession.openUI();
+        JSLoader.loadFiles(ui, JSLoader.URL_PATTERN_UNPKGCOM_FILES, "mylib", "1.0.0", files);
+        return ui;
+    }
+}
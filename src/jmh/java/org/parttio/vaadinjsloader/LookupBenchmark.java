@@ -0,0 +1,73 @@
+package org.parttio.vaadinjsloader;
+
+import com.vaadin.flow.component.UI;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of the calls made on every load: building the URLs of a library from
+ * its pattern, and checking whether a library is already loaded for a UI.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class LookupBenchmark {
+
+    /** Number of files of the library, and of libraries loaded for the UI. */
+    @Param({"1", "20"})
+    public int count;
+
+    private String[] files;
+    private UI ui;
+    private String loaded;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        files = new String[count];
+        for (int i = 0; i < count; i++) {
+            files[i] = "dist/file" + i + ".min.js";
+        }
+        ui = TestSession.openUI();
+        for (int i = 0; i < count; i++) {
+            JSLoader.loadFiles(ui, JSLoader.URL_PATTERN_UNPKGCOM_FILES, "lib" + i, "1.0.0", "index.js");
+        }
+        ui.getInternals().dumpPendingJavaScriptInvocations();
+        loaded = "lib" + (count - 1);
+    }
+
+    @Benchmark
+    public List<String> buildUrls() {
+        return JSLoader.buildUrls(JSLoader.CDNJS, "lodash.js", "4.17.21", files);
+    }
+
+    @Benchmark
+    public boolean isLoaded() {
+        return JSLoader.isLoaded(ui, loaded);
+    }
+
+    @Benchmark
+    public boolean isNotLoaded() {
+        return JSLoader.isLoaded(ui, "other");
+    }
+
+    @Benchmark
+    public String getLoadedVersion() {
+        return JSLoader.getLoadedVersion(ui, loaded);
+    }
+}
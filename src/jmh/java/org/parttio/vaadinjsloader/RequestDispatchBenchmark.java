@@ -0,0 +1,85 @@
+package org.parttio.vaadinjsloader;
+
+import com.vaadin.flow.server.VaadinRequest;
+import com.vaadin.flow.server.VaadinResponse;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Throughput of the classpath resource handler serving cached resources to
+ * concurrent sessions, for a full response and for a revalidation answered
+ * with <code>304 Not Modified</code>, and of passing on requests it does not
+ * handle. The handler is application-wide, so threads stand in for sessions.
+ */
+@BenchmarkMode(Mode.Throughput)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(8)
+public class RequestDispatchBenchmark {
+
+    private static final int LIBRARIES = 50;
+
+    @State(Scope.Benchmark)
+    public static class Resources {
+        private String eTag;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            for (int i = 0; i < LIBRARIES; i++) {
+                JavaResourceHandler.get().register(TestView.class, "dispatch" + i, "jsresource.js");
+            }
+            eTag = ClasspathResource.load(TestView.class.getResource("jsresource.js")).getETag();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Session {
+        @Param({"false", "true"})
+        public boolean conditional;
+
+        private VaadinRequest[] requests;
+        private VaadinRequest other;
+        private final VaadinResponse response = Stubs.response(new Stubs.CountingOutputStream());
+        private int next;
+
+        @Setup(Level.Trial)
+        public void setUp(Resources resources) {
+            Map<String, String> headers = conditional ? Map.of("If-None-Match", resources.eTag) : Map.of();
+            requests = new VaadinRequest[LIBRARIES];
+            for (int i = 0; i < LIBRARIES; i++) {
+                requests[i] = Stubs.request(JSLoader.PUBLIC_JAVA_RESOURCE_PATH + "dispatch" + i + "/jsresource.js",
+                        headers);
+            }
+            other = Stubs.request("/VAADIN/build/bundle.js", Map.of());
+        }
+
+        VaadinRequest nextRequest() {
+            next = (next + 1) % LIBRARIES;
+            return requests[next];
+        }
+    }
+
+    @Benchmark
+    public boolean serve(Session session) throws IOException {
+        return JavaResourceHandler.get().handleRequest(null, session.nextRequest(), session.response);
+    }
+
+    @Benchmark
+    public boolean passOn(Session session) throws IOException {
+        return JavaResourceHandler.get().handleRequest(null, session.other, session.response);
+    }
+}
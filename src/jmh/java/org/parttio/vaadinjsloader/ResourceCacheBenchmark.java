@@ -0,0 +1,111 @@
+package org.parttio.vaadinjsloader;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+/**
+ * Compares serving a classpath resource from a JAR with and without
+ * {@link ResourceCache}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(4)
+public class ResourceCacheBenchmark {
+
+    private static final String PATH = "lib/library.min.js";
+
+    @Param({"32768", "524288"})
+    public int resourceSize;
+
+    private Path jar;
+    private URLClassLoader classLoader;
+    private ResourceCache cache;
+    private final OutputStream out = new SocketLikeOutputStream();
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        jar = Files.createTempFile("jsloader-benchmark", ".jar");
+        try (JarOutputStream jos = new JarOutputStream(Files.newOutputStream(jar))) {
+            jos.putNextEntry(new JarEntry(PATH));
+            jos.write(scriptLike(resourceSize));
+            jos.closeEntry();
+        }
+        classLoader = new URLClassLoader(new URL[]{jar.toUri().toURL()}, null);
+        cache = new ResourceCache(ResourceCache.DEFAULT_MAX_SIZE);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        classLoader.close();
+        Files.deleteIfExists(jar);
+    }
+
+    @Benchmark
+    public void uncached() throws IOException {
+        try (InputStream in = classLoader.getResourceAsStream(PATH)) {
+            in.transferTo(out);
+        }
+    }
+
+    @Benchmark
+    public void cached() throws IOException {
+        out.write(cache.get(classLoader, PATH).getContent());
+    }
+
+    /** Compressible content resembling minified JavaScript. */
+    private static byte[] scriptLike(int size) {
+        String[] tokens = {"function ", "return ", "var ", "this.", "prototype", "(", ")", "{", "}", ";", "=", ",", "a", "b", "e", "t", "n"};
+        Random random = new Random(42);
+        StringBuilder sb = new StringBuilder(size);
+        while (sb.length() < size) {
+            sb.append(tokens[random.nextInt(tokens.length)]);
+        }
+        sb.setLength(size);
+        return sb.toString().getBytes();
+    }
+
+    /** Copies the written bytes through a fixed buffer like a servlet output stream would. */
+    private static final class SocketLikeOutputStream extends OutputStream {
+        private final byte[] buffer = new byte[8192];
+
+        @Override
+        public void write(int b) {
+            buffer[0] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            while (len > 0) {
+                int n = Math.min(len, buffer.length);
+                System.arraycopy(b, off, buffer, 0, n);
+                off += n;
+                len -= n;
+            }
+        }
+    }
+}
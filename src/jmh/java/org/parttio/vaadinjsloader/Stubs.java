@@ -0,0 +1,71 @@
+package org.parttio.vaadinjsloader;
+
+import com.vaadin.flow.server.VaadinRequest;
+import com.vaadin.flow.server.VaadinResponse;
+
+import java.io.OutputStream;
+import java.lang.reflect.Proxy;
+import java.util.Map;
+
+/**
+ * Minimal request and response stubs for benchmarking the resource handler.
+ */
+final class Stubs {
+
+    private Stubs() {
+    }
+
+    /**
+     * Creates a request with the given path and headers.
+     *
+     * @param pathInfo the path of the request
+     * @param headers  the request headers
+     * @return the request stub
+     */
+    static VaadinRequest request(String pathInfo, Map<String, String> headers) {
+        return (VaadinRequest) Proxy.newProxyInstance(Stubs.class.getClassLoader(),
+                new Class<?>[]{VaadinRequest.class}, (p, method, args) -> {
+                    switch (method.getName()) {
+                        case "getPathInfo":
+                            return pathInfo;
+                        case "getHeader":
+                            return headers.get((String) args[0]);
+                        case "getDateHeader":
+                            return -1L;
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+
+    /**
+     * Creates a response that discards headers and writes the body to the given stream.
+     *
+     * @param body the stream to write the body to
+     * @return the response stub
+     */
+    static VaadinResponse response(OutputStream body) {
+        return (VaadinResponse) Proxy.newProxyInstance(Stubs.class.getClassLoader(),
+                new Class<?>[]{VaadinResponse.class}, (p, method, args) -> {
+                    if (method.getName().equals("getOutputStream")) {
+                        return body;
+                    }
+                    return null;
+                });
+    }
+
+    /** Counts the bytes written to it. */
+    static final class CountingOutputStream extends OutputStream {
+        long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package org.parttio.vaadinjsloader;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Concatenation of the scripts or style sheets of a library into a single
+ * file, with an index source map pointing each section of the bundle back to
+ * its original file.
+ */
+final class Bundle {
+
+    private final byte[] content;
+    private final byte[] sourceMap;
+    private final String sourceMapName;
+
+    private Bundle(byte[] content, byte[] sourceMap, String sourceMapName) {
+        this.content = content;
+        this.sourceMap = sourceMap;
+        this.sourceMapName = sourceMapName;
+    }
+
+    /**
+     * Concatenates files.
+     *
+     * @param sources       the URLs of the original files, used in the source map
+     * @param contents      the contents of the files, in the same order
+     * @param css           true for style sheets, false for classic scripts
+     * @param bundleName    the file name of the bundle, e.g. <code>lib.bundle.js</code>.
+     *                      The source map is named after it with a hash of the
+     *                      content, e.g. <code>lib.bundle.&lt;hash&gt;.js.map</code>.
+     * @return the bundle, or null if a script starts with a directive such as
+     * <code>"use strict"</code>, which would apply to the scripts after it
+     */
+    static Bundle concatenate(List<String> sources, List<byte[]> contents, boolean css, String bundleName) {
+        if (!css && contents.stream().anyMatch(Bundle::hasDirective)) {
+            return null;
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        StringBuilder sections = new StringBuilder();
+        int line = 0;
+        for (int i = 0; i < contents.size(); i++) {
+            byte[] file = contents.get(i);
+            if (i > 0 && !css) {
+                // Terminates a last statement without a semicolon
+                out.write(';');
+                out.write('\n');
+                line++;
+            }
+            int lines = countLines(file);
+            if (sections.length() > 0) {
+                sections.append(',');
+            }
+            sections.append("{\"offset\":{\"line\":").append(line).append(",\"column\":0},\"map\":")
+                    .append(identityMap(sources.get(i), lines)).append('}');
+            out.write(file, 0, file.length);
+            if (file.length > 0 && file[file.length - 1] != '\n') {
+                out.write('\n');
+            }
+            line += lines;
+        }
+        String sourceMapName = JavaResourceHandler.insertHash(bundleName,
+                ClasspathResource.hash(out.toByteArray()).substring(0, JavaResourceHandler.FINGERPRINT_LENGTH)) + ".map";
+        String comment = css ? "/*# sourceMappingURL=" + sourceMapName + " */\n"
+                : "//# sourceMappingURL=" + sourceMapName + "\n";
+        byte[] trailer = comment.getBytes(StandardCharsets.US_ASCII);
+        out.write(trailer, 0, trailer.length);
+
+        String map = "{\"version\":3,\"sections\":[" + sections + "]}";
+        return new Bundle(out.toByteArray(), map.getBytes(StandardCharsets.UTF_8), sourceMapName);
+    }
+
+    /**
+     * Checks whether a script starts with a directive prologue, i.e. a
+     * string literal after an optional byte order mark, hashbang line,
+     * white space and comments.
+     */
+    static boolean hasDirective(byte[] file) {
+        int i = file.length >= 3 && (file[0] & 0xFF) == 0xEF && (file[1] & 0xFF) == 0xBB && (file[2] & 0xFF) == 0xBF
+                ? 3 : 0;
+        if (i + 1 < file.length && file[i] == '#' && file[i + 1] == '!') {
+            i = skipLine(file, i);
+        }
+        while (i < file.length) {
+            byte b = file[i];
+            if (b == ' ' || b == '\t' || b == '\n' || b == '\r' || b == '\f') {
+                i++;
+            } else if (b == '/' && i + 1 < file.length && file[i + 1] == '/') {
+                i = skipLine(file, i);
+            } else if (b == '/' && i + 1 < file.length && file[i + 1] == '*') {
+                int end = i + 2;
+                while (end + 1 < file.length && !(file[end] == '*' && file[end + 1] == '/')) {
+                    end++;
+                }
+                i = end + 2;
+            } else {
+                return b == '"' || b == '\'';
+            }
+        }
+        return false;
+    }
+
+    private static int skipLine(byte[] file, int i) {
+        while (i < file.length && file[i] != '\n') {
+            i++;
+        }
+        return i;
+    }
+
+    /** Number of lines the file takes in the bundle, counting a last line without a line break. */
+    private static int countLines(byte[] file) {
+        int lines = 0;
+        for (byte b : file) {
+            if (b == '\n') {
+                lines++;
+            }
+        }
+        return file.length > 0 && file[file.length - 1] != '\n' ? lines + 1 : lines;
+    }
+
+    /** Source map mapping the start of each line to the same line of the source. */
+    private static String identityMap(String source, int lines) {
+        StringBuilder mappings = new StringBuilder();
+        for (int i = 0; i < lines; i++) {
+            if (i > 0) {
+                mappings.append(';');
+            }
+            // Generated column 0, source 0, one line down from the previous segment, column 0
+            mappings.append(i == 0 ? "AAAA" : "AACA");
+        }
+        return "{\"version\":3,\"sources\":[\"" + source.replace("\\", "\\\\").replace("\"", "\\\"")
+                + "\"],\"names\":[],\"mappings\":\"" + mappings + "\"}";
+    }
+
+    byte[] getContent() {
+        return content;
+    }
+
+    byte[] getSourceMap() {
+        return sourceMap;
+    }
+
+    String getSourceMapName() {
+        return sourceMapName;
+    }
+}
@@ -0,0 +1,199 @@
+package org.parttio.vaadinjsloader;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.URL;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Local copy of CDN libraries, e.g. from cdnjs.com and unpkg.com, served
+ * from the same origin as the application.
+ * <p>
+ * Files are fetched once into a directory, the content store, and served by
+ * the resource handler of this add-on with the same caching headers as the
+ * Java classpath resources. When a mirror is enabled with
+ * {@link JSLoader#setMirror(CdnMirror)}, the load methods transparently use
+ * the local copy of every mirrored URL, other URLs are loaded as before.
+ * <pre>
+ * CdnMirror mirror = new CdnMirror(Path.of("cdn-mirror"));
+ * mirror.fetch(JSLoader.URL_PATTERN_UNPKGCOM, "three", "0.158.0");
+ * JSLoader.setMirror(mirror);
+ * </pre>
+ * The store can also be filled at build time with {@link #main(String...)},
+ * e.g. from the <code>exec-maven-plugin</code>, and shipped with the
+ * application. Fetching is then skipped for the files already in the store.
+ * <p>
+ * Only the given files are mirrored, not the files they refer to, e.g. fonts
+ * in style sheets or relative imports of ES modules.
+ */
+public final class CdnMirror {
+
+    /** Public path under which the mirrored files are served. */
+    public static final String MIRROR_PATH = JSLoader.PUBLIC_JAVA_RESOURCE_PATH + "_mirror/";
+
+    private static final String INDEX = "index.properties";
+
+    private static final Map<String, String> CONTENT_TYPE_EXTENSIONS = Map.of(
+            "application/javascript", ".js",
+            "text/javascript", ".js",
+            "text/css", ".css");
+
+    private final Path store;
+    /** CDN URL -> path of the file relative to the store. */
+    private final Map<String, String> files = new ConcurrentHashMap<>();
+    /** Local URL -> CDN URL. */
+    private final Map<String, String> localUrls = new ConcurrentHashMap<>();
+
+    /**
+     * Opens a content store, reading the files fetched into it earlier.
+     *
+     * @param store the directory of the content store, created if needed
+     * @throws IOException if reading the store fails
+     */
+    public CdnMirror(Path store) throws IOException {
+        this.store = store;
+        Files.createDirectories(store);
+        Downloads.readProperties(store.resolve(INDEX)).forEach(this::add);
+    }
+
+    /**
+     * Fetches the files of a library into the store, unless already there.
+     *
+     * @param urlPattern  the URL pattern, e.g. {@link JSLoader#URL_PATTERN_UNPKGCOM}
+     * @param libraryName the name of the library
+     * @param version     the version of the library
+     * @param file        the files of the library or none
+     * @throws IOException if fetching a file fails
+     */
+    public void fetch(String urlPattern, String libraryName, String version, String... file) throws IOException {
+        if (version == null || version.isEmpty()) {
+            version = "latest";
+        }
+        for (String url : JSLoader.buildUrls(urlPattern, libraryName, version, file)) {
+            fetch(url);
+        }
+    }
+
+    /**
+     * Fetches a file into the store, unless already there. Redirects, e.g.
+     * from a bare unpkg.com package URL to its main file, are followed.
+     *
+     * @param url the absolute URL of the file
+     * @return the URL the file is served from by this add-on
+     * @throws IOException if fetching the file fails
+     */
+    public String fetch(String url) throws IOException {
+        String localUrl = getLocalUrl(url);
+        if (localUrl != null) {
+            return localUrl;
+        }
+        HttpResponse<InputStream> response = Downloads.get(url);
+        String file = toFile(URI.create(url), response.headers().firstValue("Content-Type").orElse(""));
+        try (InputStream in = response.body()) {
+            Downloads.write(store.resolve(file), in::transferTo);
+        }
+        add(url, file);
+        writeIndex();
+        return getLocalUrl(url);
+    }
+
+    /**
+     * Fills a content store from the command line, for use at build time.
+     *
+     * @param args the directory of the store followed by the URLs to fetch
+     * @throws IOException if fetching a file fails
+     */
+    public static void main(String... args) throws IOException {
+        Downloads.main(args, "CdnMirror <store directory> <url>...", store -> new CdnMirror(store)::fetch);
+    }
+
+    /**
+     * Gets the local URL of a mirrored file.
+     *
+     * @param url the CDN URL
+     * @return the URL under {@link #MIRROR_PATH} or null if not mirrored
+     */
+    public String getLocalUrl(String url) {
+        String file = files.get(url);
+        return file != null ? MIRROR_PATH + file : null;
+    }
+
+    /**
+     * Gets the mirrored file for a local URL.
+     *
+     * @param localUrl a URL under {@link #MIRROR_PATH}
+     * @return the URL of the file in the store or null if not mirrored
+     */
+    URL getFile(String localUrl) {
+        String url = localUrls.get(localUrl);
+        if (url == null) {
+            return null;
+        }
+        try {
+            return store.resolve(files.get(url)).toUri().toURL();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Gets the directory of the content store.
+     *
+     * @return the store directory
+     */
+    public Path getStore() {
+        return store;
+    }
+
+    private void add(String url, String file) {
+        files.put(url, file);
+        localUrls.put(MIRROR_PATH + file, url);
+    }
+
+    private synchronized void writeIndex() throws IOException {
+        Downloads.writeProperties(store.resolve(INDEX), files, "Files fetched by " + CdnMirror.class.getName());
+    }
+
+    /**
+     * Maps a CDN URL to a relative path in the store, e.g.
+     * <code>https://unpkg.com/three@0.158.0</code> to
+     * <code>unpkg.com/three@0.158.0/index.js</code>.
+     *
+     * @param uri         the CDN URL
+     * @param contentType the content type of the response, for files without
+     *                    an extension
+     * @return the relative path
+     */
+    static String toFile(URI uri, String contentType) {
+        String host = uri.getPort() < 0 ? uri.getHost() : uri.getHost() + "_" + uri.getPort();
+        StringBuilder file = new StringBuilder(sanitize(host));
+        for (String segment : (uri.getPath() == null ? "" : uri.getPath()).split("/")) {
+            if (!segment.isEmpty() && !segment.equals(".") && !segment.equals("..")) {
+                file.append('/').append(sanitize(segment));
+            }
+        }
+        String name = file.substring(file.lastIndexOf("/") + 1);
+        if (!name.matches(".*\\.[A-Za-z][A-Za-z0-9]*")) {
+            // No extension, e.g. a bare package URL: keep it as a directory
+            String type = contentType.split(";")[0].trim().toLowerCase();
+            file.append("/index").append(CONTENT_TYPE_EXTENSIONS.getOrDefault(type, ".js"));
+        }
+        if (uri.getRawQuery() != null) {
+            // E.g. lib.js?v=1 and lib.js?v=2 are different files
+            String hash = ClasspathResource.hash(uri.getRawQuery().getBytes(StandardCharsets.UTF_8));
+            return JavaResourceHandler.insertHash(file.toString(), hash.substring(0, JavaResourceHandler.FINGERPRINT_LENGTH));
+        }
+        return file.toString();
+    }
+
+    private static String sanitize(String segment) {
+        return segment.replaceAll("[^A-Za-z0-9@._-]", "_");
+    }
+}
@@ -0,0 +1,282 @@
+package org.parttio.vaadinjsloader;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.JarURLConnection;
+import java.net.URI;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Content of a classpath resource together with its HTTP validators. The
+ * content is either held in memory or, for large resources, in a file.
+ */
+final class ClasspathResource {
+
+    private final byte[] content;
+    private final Path file;
+    private final long length;
+    private final String eTag;
+    private final long lastModified;
+
+    private ClasspathResource(byte[] content, String eTag, long lastModified) {
+        this(content, null, content != null ? content.length : 0, eTag, lastModified);
+    }
+
+    private ClasspathResource(byte[] content, Path file, long length, String eTag, long lastModified) {
+        this.content = content;
+        this.file = file;
+        this.length = length;
+        this.eTag = eTag;
+        this.lastModified = lastModified;
+    }
+
+    /**
+     * Reads a resource and computes its validators.
+     *
+     * @param url the URL of the resource
+     * @return the loaded resource
+     * @throws IOException if reading the resource fails
+     */
+    static ClasspathResource load(URL url) throws IOException {
+        URLConnection connection = url.openConnection();
+        long lastModified = getLastModified(connection);
+        byte[] content;
+        try (InputStream in = connection.getInputStream()) {
+            content = in.readAllBytes();
+        }
+        return new ClasspathResource(content, "\"" + hash(content) + "\"", lastModified);
+    }
+
+    /**
+     * Makes a resource available as a file and computes its validators,
+     * without reading it into memory. A resource that already is a file,
+     * e.g. a file of the CDN mirror, is used in place, others are copied
+     * into the directory under the hash of their content.
+     *
+     * @param url       the URL of the resource
+     * @param directory the directory to extract the resource into, created if needed
+     * @return the resource backed by a file
+     * @throws IOException if reading or writing the resource fails
+     */
+    static ClasspathResource extract(URL url, Path directory) throws IOException {
+        MessageDigest digest = newDigest();
+        if ("file".equals(url.getProtocol())) {
+            // Not through a connection, which would open the file and leave it open
+            Path file = Path.of(URI.create(url.toExternalForm()));
+            try (InputStream in = new DigestInputStream(Files.newInputStream(file), digest)) {
+                in.transferTo(OutputStream.nullOutputStream());
+            }
+            return new ClasspathResource(null, file, Files.size(file), "\"" + encode(digest.digest()) + "\"",
+                    Files.getLastModifiedTime(file).toMillis());
+        }
+
+        URLConnection connection = url.openConnection();
+        long lastModified = getLastModified(connection);
+        Files.createDirectories(directory);
+        Path temp = Files.createTempFile(directory, ".extract", null);
+        try (InputStream in = new DigestInputStream(connection.getInputStream(), digest)) {
+            Files.copy(in, temp, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        String hash = encode(digest.digest());
+        String name = url.getPath().substring(url.getPath().lastIndexOf('/') + 1);
+        // Named by content, so an existing copy, e.g. extracted before the resource was evicted, is identical.
+        // It may be streaming to another client, so it is kept rather than replaced.
+        Path file = directory.resolve(name.lastIndexOf('.') < 0 ? hash : hash + name.substring(name.lastIndexOf('.')));
+        if (Files.exists(file)) {
+            Files.delete(temp);
+        } else {
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        return new ClasspathResource(null, file, Files.size(file), "\"" + hash + "\"", lastModified);
+    }
+
+    /**
+     * Gets the size of a resource without reading it.
+     *
+     * @param url the URL of the resource
+     * @return the size in bytes or -1 if not known
+     * @throws IOException if the resource cannot be accessed
+     */
+    static long size(URL url) throws IOException {
+        if ("file".equals(url.getProtocol())) {
+            return Files.size(Path.of(URI.create(url.toExternalForm())));
+        }
+        URLConnection connection = url.openConnection();
+        if (connection instanceof JarURLConnection) {
+            // The size of a JAR entry is known without inflating it
+            return ((JarURLConnection) connection).getJarEntry().getSize();
+        }
+        long length = connection.getContentLengthLong();
+        // Connecting may have opened the resource
+        connection.getInputStream().close();
+        return length;
+    }
+
+    private static long getLastModified(URLConnection connection) throws IOException {
+        if (connection instanceof JarURLConnection) {
+            // The connection would report the time of the JAR file, not the entry
+            return ((JarURLConnection) connection).getJarEntry().getTime();
+        }
+        return connection.getLastModified();
+    }
+
+    /**
+     * Creates a resource from content built in memory, e.g. a bundle.
+     *
+     * @param content      the content
+     * @param lastModified the last modification time or 0 if not known
+     * @return the resource
+     */
+    static ClasspathResource of(byte[] content, long lastModified) {
+        return new ClasspathResource(content, "\"" + hash(content) + "\"", lastModified);
+    }
+
+    /**
+     * Compresses a resource with gzip.
+     *
+     * @param resource the resource to compress
+     * @return the gzip encoded representation of the resource
+     * @throws IOException if compressing fails
+     */
+    static ClasspathResource gzip(ClasspathResource resource) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(resource.content.length / 3 + 64);
+        // Compressed only once, so use the best compression
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out) {{ def.setLevel(Deflater.BEST_COMPRESSION); }}) {
+            gzip.write(resource.content);
+        }
+        // Each representation needs its own strong entity tag
+        String eTag = resource.eTag.substring(0, resource.eTag.length() - 1) + "-gzip\"";
+        return new ClasspathResource(out.toByteArray(), eTag, resource.lastModified);
+    }
+
+    /**
+     * Computes the URL-safe Base64 hash of content, as in the entity tags.
+     *
+     * @param content the content to hash
+     * @return the hash
+     */
+    static String hash(byte[] content) {
+        return encode(newDigest().digest(content));
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            // The algorithm of Subresource Integrity, so that the entity tag also gives the integrity
+            return MessageDigest.getInstance("SHA-384");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-384 not available", e);
+        }
+    }
+
+    private static String encode(byte[] digest) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(digest);
+    }
+
+    /**
+     * Gets a copy of this resource without the content, for keeping the
+     * validators around after the content has been evicted.
+     *
+     * @return the validators of this resource
+     */
+    ClasspathResource validators() {
+        return new ClasspathResource(null, eTag, lastModified);
+    }
+
+    /**
+     * Gets the content of the resource.
+     *
+     * @return the content or null if this instance only holds the validators
+     * or the content is in a file
+     */
+    byte[] getContent() {
+        return content;
+    }
+
+    /**
+     * Gets the file holding the content of a large resource.
+     *
+     * @return the file or null if the content is held in memory
+     */
+    Path getFile() {
+        return file;
+    }
+
+    /**
+     * Gets the size of the content.
+     *
+     * @return the length in bytes
+     */
+    long getLength() {
+        return length;
+    }
+
+    /**
+     * Gets the strong entity tag of the resource, a quoted hash of the content.
+     *
+     * @return the entity tag
+     */
+    String getETag() {
+        return eTag;
+    }
+
+    /**
+     * Gets the Subresource Integrity metadata of the resource, taken from the
+     * hash in the entity tag of the identity representation.
+     *
+     * @return the integrity, e.g. <code>sha384-&lt;Base64 hash&gt;</code>
+     */
+    String getIntegrity() {
+        return IntegrityManifest.toIntegrity(eTag.substring(1, eTag.length() - 1));
+    }
+
+    /**
+     * Gets the last modification time of the resource, e.g. the time of the
+     * JAR entry.
+     *
+     * @return milliseconds since the epoch or 0 if not known
+     */
+    long getLastModified() {
+        return lastModified;
+    }
+
+    /**
+     * Checks whether a conditional request can be answered with
+     * <code>304 Not Modified</code>.
+     *
+     * @param ifNoneMatch     the <code>If-None-Match</code> header or null
+     * @param ifModifiedSince the <code>If-Modified-Since</code> header or -1
+     * @return true if the client already has this version of the resource
+     */
+    boolean isNotModified(String ifNoneMatch, long ifModifiedSince) {
+        if (ifNoneMatch != null) {
+            // If-Modified-Since is ignored when If-None-Match is present
+            for (String tag : ifNoneMatch.split(",")) {
+                tag = tag.trim();
+                if (tag.startsWith("W/")) {
+                    tag = tag.substring(2);
+                }
+                if (tag.equals("*") || tag.equals(eTag)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        return ifModifiedSince >= 0 && lastModified > 0
+                && lastModified / 1000 <= ifModifiedSince / 1000;
+    }
+}
@@ -0,0 +1,340 @@
+package org.parttio.vaadinjsloader;
+
+import com.vaadin.flow.component.ComponentUtil;
+import com.vaadin.flow.component.UI;
+import com.vaadin.flow.dom.Element;
+import com.vaadin.flow.shared.Registration;
+import elemental.json.Json;
+import elemental.json.JsonArray;
+import elemental.json.JsonObject;
+import elemental.json.JsonType;
+import elemental.json.JsonValue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Sends the files of loaded libraries to the client-side loader of a UI,
+ * <code>window.Vaadin.jsloader</code>, with as few JavaScript invocations as
+ * possible.
+ * <p>
+ * The client-side loader is sent along with the first invocation of each UI.
+ * It imports each ES module exactly once, deduplicating concurrent imports of
+ * the same URL, and publishes the exports as a global named after the library.
+ * Once all files of a library have loaded or failed, the loader reports the
+ * outcome back, completing the future returned for the library.
+ *
+ * @see JSLoader#setBatching(JSLoader.Batching)
+ */
+final class ClientLoader implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final String SOURCE = readSource();
+
+    private boolean installed;
+    private int nextId;
+    /** Number of import map entries sent to the browser. */
+    private int importsSent;
+    private transient JsonArray batch;
+    private transient List<Integer> batchResults;
+    /** Library name -> future of its latest load, or of the latest one completed. */
+    private transient Map<String, CompletableFuture<LoadResult>> results;
+    /**
+     * Id -> future not completed yet, cancelled when the UI is detached. The
+     * result callbacks refer to the ids only, so that a UI with loads in
+     * flight can be serialized, e.g. for session replication.
+     */
+    private transient Map<Integer, CompletableFuture<LoadResult>> pending;
+
+    private ClientLoader() {
+    }
+
+    /**
+     * Gets the client loader of the given UI, creating it if needed.
+     *
+     * @param ui the UI to get the loader for
+     * @return the client loader of the UI
+     */
+    static ClientLoader get(UI ui) {
+        ClientLoader loader = ComponentUtil.getData(ui, ClientLoader.class);
+        if (loader == null) {
+            loader = new ClientLoader();
+            // Already in the initial page
+            loader.importsSent = ImportMap.getRendered(ui.getSession());
+            ComponentUtil.setData(ui, ClientLoader.class, loader);
+            ui.addDetachListener(e -> ComponentUtil.getData(e.getSource(), ClientLoader.class).cancel());
+        }
+        return loader;
+    }
+
+    /**
+     * Loads the files of a library in the browser.
+     *
+     * @param ui       the UI to load the library for
+     * @param library  the name of the library
+     * @param version  the version of the library
+     * @param urls     the URLs of the files to load
+     * @param dependencies the names of the libraries whose scripts must be
+     *                 evaluated before those of this library
+     * @param batching {@link JSLoader.Batching#ROUND_TRIP} to send the
+     *                 library with all libraries loaded in this round trip,
+     *                 otherwise it is sent right away. With
+     *                 {@link JSLoader.Batching#NONE} only the modules and
+     *                 the files with an integrity hash are loaded, the other
+     *                 files have already been added with the
+     *                 <code>Page</code> API.
+     * @return future completed when the browser has loaded the library
+     */
+    CompletableFuture<LoadResult> load(UI ui, String library, String version, List<String> urls, List<String> dependencies,
+            JSLoader.Batching batching) {
+        JsonObject descriptor = descriptor(library, version, urls, dependencies, batching == JSLoader.Batching.NONE);
+        int id = expect(library, version);
+
+        if (batching == JSLoader.Batching.ROUND_TRIP) {
+            if (batch == null) {
+                batch = Json.createArray();
+                batchResults = new ArrayList<>();
+                ui.beforeClientResponse(ui, ctx -> flush(ctx.getUI()));
+            }
+            batch.set(batch.length(), descriptor);
+            batchResults.add(id);
+        } else {
+            JsonArray libraries = Json.createArray();
+            libraries.set(0, descriptor);
+            send(ui, "load($0)", libraries, new int[]{id});
+        }
+        return results().get(library);
+    }
+
+    /**
+     * Loads the files of a library in the browser once the given element is
+     * in or near the viewport.
+     *
+     * @param ui           the UI to load the library for
+     * @param element      the element to observe, attached to the UI
+     * @param library      the name of the library
+     * @param version      the version of the library
+     * @param urls         the URLs of the files to load
+     * @param dependencies the names of the libraries whose scripts must be
+     *                     evaluated before those of this library
+     * @return future completed when the browser has loaded the library, or
+     * cancelled if the element is detached before it has become visible,
+     * see {@link JSLoader#loadLibraryWhenVisible(com.vaadin.flow.component.Component, Library)}
+     */
+    CompletableFuture<LoadResult> loadWhenVisible(UI ui, Element element, String library, String version, List<String> urls,
+            List<String> dependencies) {
+        JsonArray libraries = Json.createArray();
+        libraries.set(0, descriptor(library, version, urls, dependencies, false));
+        int id = expect(library, version);
+        CompletableFuture<LoadResult> result = results().get(library);
+        Registration detach = element.addDetachListener(e -> cancelWhenVisible(ui, library, id));
+        result.whenComplete((loaded, error) -> detach.remove());
+        // Sent with the UI's invocations, not the element's, to keep the loader installed first
+        send(ui, "loadWhenVisible($1, $0, $2)", libraries, new int[]{id}, element, id);
+        return result;
+    }
+
+    /** Stops waiting for an element that went away before it became visible. */
+    private void cancelWhenVisible(UI ui, String library, int id) {
+        CompletableFuture<LoadResult> result = pending != null ? pending.remove(id) : null;
+        if (result == null) {
+            return;
+        }
+        results().remove(library, result);
+        ui.getPage().executeJs("window.Vaadin.jsloader.cancelWhenVisible($0)", id);
+        result.completeExceptionally(
+                new CancellationException("The element was detached before the library was loaded"));
+    }
+
+    /**
+     * Gets the future of a library loaded earlier, reported to the metrics
+     * as a skipped load.
+     *
+     * @param library the name of the library
+     * @param version the version of the library
+     * @return the future of the library, or a completed future without file
+     * results if it is no longer known, e.g. after deserialization
+     */
+    CompletableFuture<LoadResult> getResult(String library, String version) {
+        JSLoader.getMetrics().loadRequested(library, true);
+        CompletableFuture<LoadResult> result = results().get(library);
+        return result != null ? result
+                : CompletableFuture.completedFuture(new LoadResult(library, version, List.of()));
+    }
+
+    /** Registers the future of a load, returning its id. */
+    private int expect(String library, String version) {
+        LoaderMetrics metrics = JSLoader.getMetrics();
+        metrics.loadRequested(library, false);
+        CompletableFuture<LoadResult> result = new CompletableFuture<>();
+        if (metrics != LoaderMetrics.NONE) {
+            LoaderMetrics.LoadTrace trace = metrics.loadStarted(library, version);
+            long start = System.nanoTime();
+            result.whenComplete((loaded, error) -> {
+                if (error == null) {
+                    metrics.libraryLoaded(loaded, System.nanoTime() - start);
+                    trace.loaded(loaded);
+                } else {
+                    metrics.libraryFailed(library, error);
+                    trace.failed(error);
+                }
+            });
+        }
+        results().put(library, result);
+        if (pending == null) {
+            pending = new HashMap<>();
+        }
+        int id = nextId++;
+        pending.put(id, result);
+        return id;
+    }
+
+    private Map<String, CompletableFuture<LoadResult>> results() {
+        if (results == null) {
+            results = new HashMap<>();
+        }
+        return results;
+    }
+
+    private static JsonObject descriptor(String library, String version, List<String> urls, List<String> dependencies,
+                                         boolean added) {
+        JsonObject descriptor = Json.createObject();
+        descriptor.put("library", library);
+        descriptor.put("version", version);
+        if (!dependencies.isEmpty()) {
+            JsonArray names = Json.createArray();
+            dependencies.forEach(name -> names.set(names.length(), name));
+            descriptor.put("dependencies", names);
+        }
+        JsonArray files = Json.createArray();
+        for (String url : urls) {
+            JsonObject file = Json.createObject();
+            file.put("url", url);
+            String type = typeOf(url);
+            file.put("type", type);
+            String integrity = JSLoader.getIntegrity(url);
+            if (integrity != null) {
+                file.put("integrity", integrity);
+            } else if (added && !type.equals("module")) {
+                file.put("added", true);
+            }
+            files.set(files.length(), file);
+        }
+        descriptor.put("files", files);
+        return descriptor;
+    }
+
+    private void flush(UI ui) {
+        JsonArray libraries = batch;
+        List<Integer> ids = batchResults;
+        batch = null;
+        batchResults = null;
+        if (libraries != null) {
+            send(ui, "load($0)", libraries, ids.stream().mapToInt(Integer::intValue).toArray());
+        }
+    }
+
+    private void send(UI ui, String call, JsonArray libraries, int[] ids, Serializable... parameters) {
+        String script = "return window.Vaadin.jsloader." + call + ";";
+        Serializable[] arguments = new Serializable[parameters.length + 1];
+        arguments[0] = libraries;
+        System.arraycopy(parameters, 0, arguments, 1, parameters.length);
+        int imports = ImportMap.get().size();
+        if (imports > importsSent) {
+            // Libraries mapped since the page or the previous load was sent
+            script = "window.Vaadin.jsloader.addImports($" + arguments.length + ");" + script;
+            arguments = Arrays.copyOf(arguments, arguments.length + 1);
+            arguments[arguments.length - 1] = ImportMap.get().toJson(importsSent);
+            importsSent = imports;
+        }
+        if (!installed) {
+            script = SOURCE + script;
+            installed = true;
+        }
+        ui.getPage().executeJs(script, arguments).then(
+                value -> complete(libraries, ids, value),
+                error -> fail(ids, error));
+    }
+
+    private void complete(JsonArray libraries, int[] ids, JsonValue value) {
+        if (value.getType() != JsonType.ARRAY) {
+            fail(ids, "Unexpected result " + value.toJson());
+            return;
+        }
+        JsonArray reported = (JsonArray) value;
+        for (int i = 0; i < reported.length() && i < ids.length; i++) {
+            // Not known after deserialization or detach
+            CompletableFuture<LoadResult> result = pending != null ? pending.remove(ids[i]) : null;
+            if (result == null) {
+                continue;
+            }
+            JsonObject library = reported.getObject(i);
+            JsonArray files = library.getArray("files");
+            List<LoadResult.FileResult> fileResults = new ArrayList<>(files.length());
+            for (int j = 0; j < files.length(); j++) {
+                JsonObject file = files.getObject(j);
+                boolean loaded = file.getBoolean("loaded");
+                boolean unknown = file.hasKey("unknown") && file.getBoolean("unknown");
+                boolean timed = loaded || unknown;
+                fileResults.add(new LoadResult.FileResult(file.getString("url"), loaded, unknown,
+                        timed ? null : file.getString("error"),
+                        timed ? file.getNumber("startTime") : 0,
+                        timed ? file.getNumber("duration") : 0));
+            }
+            JsonObject descriptor = libraries.getObject(i);
+            String name = descriptor.getString("library");
+            // The future of another component waiting for the library may have been the latest
+            results().put(name, result);
+            result.complete(new LoadResult(name, descriptor.getString("version"), fileResults));
+        }
+    }
+
+    private void fail(int[] ids, String error) {
+        for (int id : ids) {
+            CompletableFuture<LoadResult> result = pending != null ? pending.remove(id) : null;
+            if (result != null) {
+                result.completeExceptionally(new IllegalStateException("Loading failed in the browser: " + error));
+            }
+        }
+    }
+
+    private void cancel() {
+        if (pending != null) {
+            new ArrayList<>(pending.values()).forEach(result -> result.completeExceptionally(
+                    new CancellationException("The UI was detached before the library was loaded")));
+            pending.clear();
+        }
+        if (results != null) {
+            results.clear();
+        }
+    }
+
+    private static String typeOf(String url) {
+        String path = url.toLowerCase();
+        if (path.endsWith(".css")) {
+            return "css";
+        } else if (path.endsWith(".mjs")) {
+            return "module";
+        }
+        return "script";
+    }
+
+    private static String readSource() {
+        try (InputStream in = ClientLoader.class.getResourceAsStream("jsloader.js")) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read the client-side loader", e);
+        }
+    }
+}
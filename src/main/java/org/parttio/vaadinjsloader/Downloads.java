@@ -0,0 +1,163 @@
+package org.parttio.vaadinjsloader;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Fetching of CDN files and writing of local stores, shared by
+ * {@link CdnMirror} and {@link IntegrityManifest} so that both behave the
+ * same at runtime and at build time.
+ */
+final class Downloads {
+
+    private static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(10);
+    /** Time to wait for the response headers, so a stalled CDN does not block startup. */
+    private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(30);
+
+    private static volatile HttpClient client;
+
+    private Downloads() {
+    }
+
+    /** Fetches a URL or a local store, see {@link #main(String[], String, Opener)}. */
+    @FunctionalInterface
+    interface Fetcher {
+        String fetch(String url) throws IOException;
+    }
+
+    /** Opens a local store given on the command line. */
+    @FunctionalInterface
+    interface Opener {
+        Fetcher open(Path path) throws IOException;
+    }
+
+    /** Writes the content of a file. */
+    @FunctionalInterface
+    interface Writer {
+        void write(OutputStream out) throws IOException;
+    }
+
+    /**
+     * Fetches a file, following redirects, e.g. from a bare unpkg.com
+     * package URL to its main file.
+     *
+     * @param url the absolute URL of the file
+     * @return the response, whose body the caller must close
+     * @throws IOException if fetching fails or the status is not 200
+     */
+    static HttpResponse<InputStream> get(String url) throws IOException {
+        HttpResponse<InputStream> response;
+        try {
+            response = client().send(HttpRequest.newBuilder(URI.create(url)).timeout(REQUEST_TIMEOUT).GET().build(),
+                    HttpResponse.BodyHandlers.ofInputStream());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while fetching " + url, e);
+        }
+        if (response.statusCode() != 200) {
+            response.body().close();
+            throw new IOException("Fetching " + url + " failed with status " + response.statusCode());
+        }
+        return response;
+    }
+
+    /**
+     * Reads a properties file of a store.
+     *
+     * @param file the file
+     * @return key -> value, empty if the file does not exist
+     * @throws IOException if reading the file fails
+     */
+    static Map<String, String> readProperties(Path file) throws IOException {
+        Map<String, String> entries = new HashMap<>();
+        if (Files.exists(file)) {
+            Properties properties = new Properties();
+            try (InputStream in = Files.newInputStream(file)) {
+                properties.load(in);
+            }
+            properties.forEach((key, value) -> entries.put((String) key, (String) value));
+        }
+        return entries;
+    }
+
+    /**
+     * Replaces a properties file of a store, see {@link #write(Path, Writer)}.
+     *
+     * @param file    the file
+     * @param entries key -> value
+     * @param comment the comment at the top of the file
+     * @throws IOException if writing the file fails
+     */
+    static void writeProperties(Path file, Map<String, String> entries, String comment) throws IOException {
+        Properties properties = new Properties();
+        properties.putAll(entries);
+        write(file, out -> properties.store(out, comment));
+    }
+
+    /**
+     * Replaces a file atomically, so that a reader never sees it partly
+     * written, e.g. another instance of the application sharing the store.
+     *
+     * @param file   the file, its directory is created if needed
+     * @param writer writes the content
+     * @throws IOException if writing the file fails
+     */
+    static void write(Path file, Writer writer) throws IOException {
+        Path directory = file.toAbsolutePath().getParent();
+        Files.createDirectories(directory);
+        Path temp = Files.createTempFile(directory, ".write", null);
+        try {
+            try (OutputStream out = Files.newOutputStream(temp)) {
+                writer.write(out);
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Fills a store from the command line, for use at build time, e.g. from
+     * the <code>exec-maven-plugin</code>.
+     *
+     * @param args   the path of the store followed by the URLs to fetch
+     * @param usage  the arguments as shown when missing
+     * @param opener opens the store
+     * @throws IOException if fetching a file fails
+     */
+    static void main(String[] args, String usage, Opener opener) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: " + usage);
+            System.exit(1);
+        }
+        Fetcher store = opener.open(Path.of(args[0]));
+        for (String url : List.of(args).subList(1, args.length)) {
+            System.out.println(url + " -> " + store.fetch(url));
+        }
+    }
+
+    private static HttpClient client() {
+        HttpClient result = client;
+        if (result == null) {
+            result = HttpClient.newBuilder()
+                    .followRedirects(HttpClient.Redirect.NORMAL)
+                    .connectTimeout(CONNECT_TIMEOUT)
+                    .build();
+            client = result;
+        }
+        return result;
+    }
+}
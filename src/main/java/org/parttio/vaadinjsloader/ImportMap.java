@@ -0,0 +1,206 @@
+package org.parttio.vaadinjsloader;
+
+import com.vaadin.flow.server.VaadinSession;
+import com.vaadin.flow.server.communication.IndexHtmlRequestListener;
+import com.vaadin.flow.server.communication.IndexHtmlResponse;
+import elemental.json.Json;
+import elemental.json.JsonObject;
+import org.jsoup.nodes.DataNode;
+import org.jsoup.nodes.Element;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Import map of the application, mapping bare module specifiers to the URLs
+ * of the libraries declared with
+ * {@link JSLoader#addImport(String, String, String, String)}, so that ES
+ * modules can <code>import</code> each other by package name and the
+ * browser fetches a shared dependency once.
+ * <p>
+ * The map is added to the initial page as a
+ * <code>&lt;script type="importmap"&gt;</code> before any other script,
+ * with the hashes of the main modules found in the
+ * {@link JSLoader#getIntegrityManifest() integrity manifest}.
+ * Entries declared later are sent with the next load of each UI, see
+ * {@link ClientLoader}, which knows from the session how many entries its
+ * page was rendered with. A single instance serves the whole application and
+ * is installed by {@link JSLoaderServiceInitListener}.
+ */
+final class ImportMap implements IndexHtmlRequestListener {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final ImportMap INSTANCE = new ImportMap();
+
+    /** Session attribute with the fewest entries a page of the session was rendered with. */
+    private static final String RENDERED_ATTRIBUTE = ImportMap.class.getName() + ".rendered";
+
+    /** Entries in the order they were added, so that UIs can be sent the new ones. */
+    private final List<Entry> entries = new ArrayList<>();
+
+    private ImportMap() {
+    }
+
+    static ImportMap get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Maps a library name, and the paths under it, to the URLs of a version.
+     *
+     * @param library the bare specifier, e.g. <code>three</code> or
+     *                <code>@scope/package</code>
+     * @param version the version the URLs point to
+     * @param url     the URL of the main module of the library
+     * @param prefix  the URL the paths under the library resolve against,
+     *                ending with <code>/</code>
+     * @return true if added or already mapped to the same URLs, false if the
+     * library is mapped to another version, which is logged
+     */
+    synchronized boolean add(String library, String version, String url, String prefix) {
+        Entry existing = find(library);
+        if (existing != null) {
+            if (existing.url.equals(url) && existing.prefix.equals(prefix)) {
+                return true;
+            }
+            getLogger().warn("Import of {} is already mapped to version {} at {}, ignoring version {} at {}",
+                    library, existing.version, existing.url, version, url);
+            return false;
+        }
+        entries.add(new Entry(library, version, url, prefix));
+        return true;
+    }
+
+    /**
+     * Reports a library loaded in a version other than the one in the import
+     * map, as modules importing it by name would get a second copy.
+     *
+     * @param library the name of the library
+     * @param version the version being loaded
+     * @return true if the versions conflict
+     */
+    synchronized boolean checkVersion(String library, String version) {
+        Entry entry = find(library);
+        if (entry == null || entry.version.equals(version)) {
+            return false;
+        }
+        getLogger().warn("Loading {} version {}, but imports of {} resolve to version {} at {}",
+                library, version, library, entry.version, entry.url);
+        return true;
+    }
+
+    /**
+     * Gets the number of entries, for sending only the new ones to a UI.
+     *
+     * @return the number of libraries mapped
+     */
+    synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Builds the <code>imports</code> of an import map.
+     *
+     * @param from the index of the first entry to include
+     * @return specifier -> URL
+     */
+    synchronized JsonObject toJson(int from) {
+        JsonObject imports = Json.createObject();
+        for (Entry entry : entries.subList(Math.min(from, entries.size()), entries.size())) {
+            imports.put(entry.library, entry.url);
+            imports.put(entry.library + "/", entry.prefix);
+        }
+        return imports;
+    }
+
+    /**
+     * Builds the <code>integrity</code> of an import map, so that the main
+     * modules are checked also when imported by name from other modules.
+     *
+     * @return URL -> integrity metadata of the main modules in the integrity manifest
+     */
+    synchronized JsonObject integrityJson() {
+        JsonObject integrity = Json.createObject();
+        for (Entry entry : entries) {
+            String hash = JSLoader.getIntegrity(entry.url);
+            if (hash != null) {
+                integrity.put(entry.url, hash);
+            }
+        }
+        return integrity;
+    }
+
+    /**
+     * Gets the number of entries the pages of a session have been rendered
+     * with, so that a UI of the session is sent only the entries added since.
+     * It is the fewest of all pages, as it is not known which page a UI
+     * belongs to.
+     *
+     * @param session the session of the UI or null
+     * @return the number of entries in the pages of the session, 0 if no
+     * page has been rendered, e.g. for exported web components
+     */
+    static int getRendered(VaadinSession session) {
+        Object rendered = session != null ? session.getAttribute(RENDERED_ATTRIBUTE) : null;
+        return rendered instanceof Integer ? (Integer) rendered : 0;
+    }
+
+    /** Removes all entries, for tests. */
+    synchronized void clear() {
+        entries.clear();
+    }
+
+    @Override
+    public void modifyIndexHtmlResponse(IndexHtmlResponse response) {
+        int size;
+        JsonObject map = Json.createObject();
+        synchronized (this) {
+            size = entries.size();
+            if (size == 0) {
+                return;
+            }
+            map.put("imports", toJson(0));
+        }
+        VaadinSession session = VaadinSession.getCurrent();
+        if (session != null && (session.getAttribute(RENDERED_ATTRIBUTE) == null || getRendered(session) > size)) {
+            session.setAttribute(RENDERED_ATTRIBUTE, size);
+        }
+        JsonObject integrity = integrityJson();
+        if (integrity.keys().length > 0) {
+            map.put("integrity", integrity);
+        }
+        // Must come before the first module script of the page
+        response.getDocument().head().prependChild(
+                new Element("script").attr("type", "importmap").appendChild(new DataNode(map.toJson())));
+    }
+
+    private Entry find(String library) {
+        for (Entry entry : entries) {
+            if (entry.library.equals(library)) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    private static Logger getLogger() {
+        return LoggerFactory.getLogger(ImportMap.class);
+    }
+
+    private static final class Entry {
+        private final String library;
+        private final String version;
+        private final String url;
+        private final String prefix;
+
+        private Entry(String library, String version, String url, String prefix) {
+            this.library = library;
+            this.version = version;
+            this.url = url;
+            this.prefix = prefix;
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package org.parttio.vaadinjsloader;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Subresource Integrity hashes of library files, so that the browser refuses
+ * a file from a CDN whose content is not the one the application was built
+ * with.
+ * <p>
+ * When a manifest is installed with
+ * {@link JSLoader#setIntegrityManifest(IntegrityManifest)}, the files found
+ * in it are loaded with <code>integrity</code> and
+ * <code>crossorigin="anonymous"</code> attributes, including their preload
+ * tags and import map entries. The hashes are looked up by URL, nothing is
+ * hashed while loading. Other files are loaded as before.
+ * <p>
+ * ES modules are imported only after a <code>modulepreload</code> with the
+ * integrity has loaded them, as <code>import()</code> takes no integrity.
+ * Browsers without <code>modulepreload</code> check a module only if they
+ * support the <code>integrity</code> of import maps and the module is a
+ * main module of {@link JSLoader#addImport(String, String, String, String)}.
+ * <pre>
+ * IntegrityManifest manifest = new IntegrityManifest(Path.of("integrity.properties"));
+ * manifest.fetch(JSLoader.URL_PATTERN_UNPKGCOM_FILES, "leaflet", "1.9.4", "dist/leaflet.js", "dist/leaflet.css");
+ * JSLoader.setIntegrityManifest(manifest);
+ * </pre>
+ * A manifest backed by a file keeps the hashes fetched into it, so each file
+ * is fetched and hashed once. It can also be generated at build time with
+ * {@link #main(String...)} and shipped with the application, or filled with
+ * hashes published by the CDN using {@link #add(String, String)}.
+ * <p>
+ * The hashes are SHA-384, the same as the entity tags of the Java classpath
+ * resources, see {@link ResourceIndex.Entry#getIntegrity()}.
+ */
+public final class IntegrityManifest {
+
+    /** The hash algorithm of the computed integrity metadata. */
+    public static final String ALGORITHM = "sha384";
+
+    private final Path file;
+    /** URL -> integrity metadata. */
+    private final Map<String, String> integrities = new ConcurrentHashMap<>();
+
+    /**
+     * Creates an empty manifest held in memory only.
+     */
+    public IntegrityManifest() {
+        this.file = null;
+    }
+
+    /**
+     * Opens a manifest file, reading the hashes stored in it earlier. Hashes
+     * fetched later are written to the file.
+     *
+     * @param file the properties file of URL to integrity metadata, created
+     *             on first fetch if needed
+     * @throws IOException if reading the file fails
+     */
+    public IntegrityManifest(Path file) throws IOException {
+        this.file = file;
+        Downloads.readProperties(file).forEach(this::add);
+    }
+
+    /**
+     * Adds the integrity metadata of a file, e.g. as published by the CDN.
+     * It is written to the manifest file with the next fetch.
+     *
+     * @param url       the URL of the file as loaded
+     * @param integrity the integrity metadata, e.g. <code>sha384-&lt;Base64 hash&gt;</code>
+     */
+    public void add(String url, String integrity) {
+        assert url != null && !url.isEmpty() : "URL cannot be null or empty";
+        assert integrity != null && integrity.matches("(sha256|sha384|sha512)-\\S+( \\S+)*")
+                : "Invalid integrity metadata: " + integrity;
+        integrities.put(url, integrity);
+    }
+
+    /**
+     * Fetches and hashes the files of a library, unless already known.
+     *
+     * @param urlPattern  the URL pattern, e.g. {@link JSLoader#URL_PATTERN_UNPKGCOM_FILES}
+     * @param libraryName the name of the library
+     * @param version     the version of the library
+     * @param file        the files of the library or none
+     * @throws IOException if fetching a file fails
+     */
+    public void fetch(String urlPattern, String libraryName, String version, String... file) throws IOException {
+        if (version == null || version.isEmpty()) {
+            version = "latest";
+        }
+        for (String url : JSLoader.buildUrls(urlPattern, libraryName, version, file)) {
+            fetch(url);
+        }
+    }
+
+    /**
+     * Fetches and hashes a file, unless already known, and writes the hash to
+     * the manifest file if any. The hash is of the content the URL redirects
+     * to, if it does.
+     *
+     * @param url the absolute URL of the file
+     * @return the integrity metadata of the file
+     * @throws IOException if fetching the file fails
+     */
+    public String fetch(String url) throws IOException {
+        String integrity = integrities.get(url);
+        if (integrity != null) {
+            return integrity;
+        }
+        MessageDigest digest = newDigest();
+        try (InputStream in = new DigestInputStream(Downloads.get(url).body(), digest)) {
+            in.transferTo(OutputStream.nullOutputStream());
+        }
+        integrity = ALGORITHM + "-" + Base64.getEncoder().encodeToString(digest.digest());
+        integrities.put(url, integrity);
+        if (file != null) {
+            writeFile();
+        }
+        return integrity;
+    }
+
+    /**
+     * Fills a manifest file from the command line, for use at build time.
+     *
+     * @param args the manifest file followed by the URLs to hash
+     * @throws IOException if fetching a file fails
+     */
+    public static void main(String... args) throws IOException {
+        Downloads.main(args, "IntegrityManifest <manifest file> <url>...", file -> new IntegrityManifest(file)::fetch);
+    }
+
+    /**
+     * Gets the integrity metadata of a file.
+     *
+     * @param url the URL of the file as loaded
+     * @return the integrity metadata or null if not in the manifest
+     */
+    public String get(String url) {
+        return integrities.get(url);
+    }
+
+    /**
+     * Gets the number of files in the manifest.
+     *
+     * @return the number of files
+     */
+    public int size() {
+        return integrities.size();
+    }
+
+    /**
+     * Computes the integrity metadata of content.
+     *
+     * @param content the content of a file
+     * @return <code>sha384-&lt;Base64 hash&gt;</code>
+     */
+    public static String compute(byte[] content) {
+        return ALGORITHM + "-" + Base64.getEncoder().encodeToString(newDigest().digest(content));
+    }
+
+    /**
+     * Converts a URL-safe Base64 SHA-384 hash, as in the entity tags of the
+     * classpath resources, to integrity metadata.
+     */
+    static String toIntegrity(String urlSafeHash) {
+        // 48 bytes encode to 64 characters without padding in both alphabets
+        return ALGORITHM + "-" + urlSafeHash.replace('-', '+').replace('_', '/');
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-384");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-384 not available", e);
+        }
+    }
+
+    private synchronized void writeFile() throws IOException {
+        Downloads.writeProperties(file, integrities, "Subresource Integrity hashes by " + IntegrityManifest.class.getName());
+    }
+}
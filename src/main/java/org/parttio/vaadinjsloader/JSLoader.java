@@ -3,15 +3,20 @@ package org.parttio.vaadinjsloader;
 import com.vaadin.flow.component.Component;
 import com.vaadin.flow.component.UI;
 import com.vaadin.flow.component.page.Page;
-import com.vaadin.flow.server.RequestHandler;
-import jakarta.servlet.http.HttpServletResponse;
+import com.vaadin.flow.dom.Element;
+import com.vaadin.flow.server.VaadinService;
+import com.vaadin.flow.server.VaadinSession;
+import com.vaadin.flow.shared.Registration;
 
-import java.io.InputStream;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
-import java.util.Arrays;
-import java.util.HashMap;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Dynamic JavaScript library loader for Vaadin.
@@ -29,7 +34,57 @@ public class JSLoader {
 
     /** Public path used to serve the local Java classpath resources. */
     public static final String PUBLIC_JAVA_RESOURCE_PATH = "/resources/";
-    private static final Map<String, String> loaded = new HashMap<>();
+
+    /** Default <code>Cache-Control</code> header of the Java classpath resources. */
+    public static final String DEFAULT_RESOURCE_CACHE_CONTROL = "no-cache";
+
+    /** Default size above which resources are served from the large resource store, 1 MiB. */
+    public static final long DEFAULT_LARGE_RESOURCE_THRESHOLD = 1024 * 1024;
+
+    private static final ResourceCache resourceCache = new ResourceCache(ResourceCache.DEFAULT_MAX_SIZE);
+    private static volatile String resourceCacheControl = DEFAULT_RESOURCE_CACHE_CONTROL;
+    private static volatile boolean fingerprinting;
+    private static volatile Path largeResourceStore;
+    private static volatile long largeResourceThreshold = DEFAULT_LARGE_RESOURCE_THRESHOLD;
+    private static volatile Batching batching = Batching.NONE;
+    private static volatile CdnMirror mirror;
+    private static volatile IntegrityManifest integrityManifest;
+    private static volatile boolean bundling;
+    private static volatile boolean startupIndex;
+    private static volatile LoaderMetrics metrics = LoaderMetrics.NONE;
+    private static final Map<String, Library> libraries = new ConcurrentHashMap<>();
+    /** URL served from the mirror or fingerprinted -> URL given by the pattern, the key of its integrity. */
+    private static final Map<String, String> originalUrls = new ConcurrentHashMap<>();
+
+    /**
+     * How the client-side work of loading libraries is sent to the browser.
+     *
+     * @see #setBatching(Batching)
+     */
+    public enum Batching {
+        /**
+         * Scripts and style sheets are added with the <code>Page</code> API,
+         * ES modules and the bookkeeping are sent as a separate invocation
+         * of the client-side loader. This is the default.
+         * <p>
+         * The <code>Page</code> API reports no outcome, so failures of these
+         * files can be detected only where the browser exposes the HTTP
+         * status through the Resource Timing API. Other files are reported
+         * with an unknown outcome, see {@link LoadResult.FileResult#isUnknown()}.
+         */
+        NONE,
+        /**
+         * All files of a library and its bookkeeping are sent as a single
+         * invocation of the client-side loader.
+         */
+        LIBRARY,
+        /**
+         * All libraries loaded during a server round trip are sent as a
+         * single invocation of the client-side loader, just before the
+         * response is written.
+         */
+        ROUND_TRIP
+    }
 
     /**
      * Loads a JavaScript and CSS files dynamically from given URL.
@@ -46,11 +101,12 @@ public class JSLoader {
      * @param libraryName the name of the library to load
      * @param version     the version of the library to load
      * @param libraryFile the JavaScript file to load or null
+     * @return future completed when the library has been loaded in the browser
      * @deprecated Use {{@link #loadFiles(Component, String, String, String, String...)}} instead.
      */
     @SuppressWarnings("JavadocLinkAsPlainText")
-    public static void load(Component component, String libraryName, String version, String libraryFile, String urlPattern) {
-        loadFiles(component, urlPattern, libraryName, version, libraryFile);
+    public static CompletableFuture<LoadResult> load(Component component, String libraryName, String version, String libraryFile, String urlPattern) {
+        return loadFiles(component, urlPattern, libraryName, version, libraryFile);
     }
 
     /**
@@ -62,15 +118,24 @@ public class JSLoader {
      * <p>
      * E.g. for unpkg.com:
      * <code>https://unpkg.com/{library}@{version}/dist/{library}</code>
+     * <p>
+     * The library is marked as loaded right away, see
+     * {@link #isLoaded(Component, String)}. Use the returned future to run
+     * code that needs the library, e.g.
+     * <code>loadFiles(...).thenRun(() -&gt; ui.getPage().executeJs(...))</code>.
      *
      * @param component   the UI instance to load the library for
      * @param urlPattern  the base URL pattern to use for loading the library
      * @param libraryName the name of the library to load
      * @param version     the version of the library to load
      * @param file        the files of the library to load
+     * @return future completed with the outcome and timing of each file once
+     * all files have loaded or failed in the browser. It completes in the UI
+     * thread with the session locked, and exceptionally if the UI is detached
+     * first. Loading an already loaded library returns the same future.
      */
     @SuppressWarnings("JavadocLinkAsPlainText")
-    public static void loadFiles(Component component, String urlPattern, String libraryName, String version, String... file) {
+    public static CompletableFuture<LoadResult> loadFiles(Component component, String urlPattern, String libraryName, String version, String... file) {
         assert component != null : "Component cannot be null";
         assert libraryName != null && !libraryName.isEmpty() : "Library name cannot be null or empty";
         assert urlPattern != null && !urlPattern.isEmpty() : "URL Pattern cannot be null or empty";
@@ -81,45 +146,235 @@ public class JSLoader {
         }
 
         // Check if the library has already been loaded for this UI
-        if (isLoaded(component, libraryName)) {
-            return;
+        UI ui = getUI(component);
+        String loadedVersion = getLoadedVersion(ui, libraryName);
+        if (loadedVersion != null) {
+            return ClientLoader.get(ui).getResult(libraryName, loadedVersion);
         }
 
-        // Replace placeholders in the base URL pattern
-        Map<String, String> replacements = new HashMap<>();
-        replacements.put("library", libraryName);
-        replacements.put("version", version);
+        VaadinSession session = ui.getSession();
+        List<String> urls = resolveUrls(session != null ? session.getService() : null,
+                urlPattern, libraryName, version, file);
+        return load(ui, libraryName, version, urls, List.of(), batching);
+    }
 
-        UI ui = getUI(component);
-        if (file != null && file.length > 0) {
-            for (String f : file) {
-                replacements.put("file", f);
-                String fileUrl = replacePlaceholders(urlPattern, replacements);
-                if (f.toLowerCase().endsWith(".css")) {
-                    addStyleSheet(ui.getPage(),fileUrl);
-                } else if (f.toLowerCase().endsWith(".mjs")) {
-                    addJsModule(ui.getPage(),fileUrl);
-                    importModuleExports(ui, libraryName, fileUrl);
-                } else {
-                    addJavaScript(ui.getPage(),fileUrl);
+    private static CompletableFuture<LoadResult> load(UI ui, String libraryName, String version, List<String> urls,
+                                                      List<String> dependencies, Batching batching) {
+        if (urls.stream().anyMatch(url -> url.toLowerCase().endsWith(".mjs"))) {
+            // Reported on the server, bare imports would get the mapped version
+            ImportMap.get().checkVersion(libraryName, version);
+        }
+        if (batching == Batching.NONE) {
+            for (String url : urls) {
+                if (getIntegrity(url) != null) {
+                    // The Page API cannot set the integrity, left to the client-side loader
+                    continue;
                 }
+                if (url.toLowerCase().endsWith(".css")) {
+                    addStyleSheet(ui.getPage(), url);
+                } else if (!url.toLowerCase().endsWith(".mjs")) {
+                    addJavaScript(ui.getPage(), url);
+                }
+                // Modules are imported once by the client-side loader
             }
-        } else {
-            // Load the script and mark the library as loaded for this UI
-            String scriptUrl = replacePlaceholders(urlPattern, replacements);
-            if (scriptUrl.toLowerCase().endsWith(".mjs")) {
-                addJsModule(ui.getPage(),scriptUrl);
-                importModuleExports(ui, libraryName, scriptUrl);
+        }
+        // Mark the library as loaded for this UI
+        LoadRegistry.get(ui).setVersion(libraryName, version);
+        return ClientLoader.get(ui).load(ui, libraryName, version, urls, dependencies, batching);
+    }
+
+    /**
+     * Registers a library descriptor, so it can be loaded by name.
+     *
+     * @param library the library to register
+     * @see #loadLibrary(Component, String)
+     */
+    public static void register(Library library) {
+        assert library != null : "Library cannot be null";
+        libraries.put(library.getName(), library);
+    }
+
+    /**
+     * Loads a registered library and its dependencies.
+     *
+     * @param component   the UI instance to load the library for
+     * @param libraryName the name of a library registered with
+     *                    {@link #register(Library)}
+     * @return future completed when the library has been loaded in the browser
+     * @throws IllegalArgumentException if no library is registered with the name
+     */
+    public static CompletableFuture<LoadResult> loadLibrary(Component component, String libraryName) {
+        Library library = libraries.get(libraryName);
+        if (library == null) {
+            throw new IllegalArgumentException("No library registered with name " + libraryName);
+        }
+        return loadLibrary(component, library);
+    }
+
+    /**
+     * Loads a library and its dependencies.
+     * <p>
+     * The dependency graph is resolved on the server and sent to the browser
+     * at once. All files are fetched in parallel, and the scripts and
+     * modules of each library are evaluated as soon as its dependencies have
+     * been evaluated. Libraries already loaded for the UI, and dependencies
+     * shared by several libraries, are loaded only once.
+     *
+     * @param component the UI instance to load the library for
+     * @param library   the library to load
+     * @return future completed when the library, and thus its dependencies,
+     * has been loaded in the browser
+     * @throws IllegalArgumentException if the dependencies form a cycle
+     */
+    public static CompletableFuture<LoadResult> loadLibrary(Component component, Library library) {
+        assert component != null : "Component cannot be null";
+        assert library != null : "Library cannot be null";
+
+        return loadGraph(getUI(component), library, null);
+    }
+
+    /**
+     * Loads a JavaScript and CSS files once the given component is attached
+     * and scrolled into, or near, the viewport.
+     * <p>
+     * Use this for components that may be far below the fold, so that their
+     * libraries are not downloaded and parsed on first paint. Until then, the
+     * library is pending: {@link #isPending(Component, String)} returns true
+     * and {@link #isLoaded(Component, String)} false. Loading the same
+     * library eagerly, or for another component that becomes visible first,
+     * loads it right away.
+     * <p>
+     * The component stops waiting when it is detached, and starts again when
+     * it is attached again, e.g. when it is moved to another tab or layout.
+     * The returned future stays pending meanwhile.
+     *
+     * @param component   the component whose visibility triggers loading
+     * @param urlPattern  the base URL pattern to use for loading the library
+     * @param libraryName the name of the library to load
+     * @param version     the version of the library to load
+     * @param file        the files of the library to load
+     * @return future completed when the library has been loaded in the browser
+     * @see #loadFiles(Component, String, String, String, String...)
+     */
+    public static CompletableFuture<LoadResult> loadFilesWhenVisible(Component component, String urlPattern, String libraryName, String version, String... file) {
+        return loadLibraryWhenVisible(component, new Library(libraryName, version, urlPattern, file));
+    }
+
+    /**
+     * Loads a library and its dependencies once the given component is
+     * attached and scrolled into, or near, the viewport.
+     *
+     * @param component the component whose visibility triggers loading
+     * @param library   the library to load
+     * @return future completed when the library has been loaded in the browser
+     * @see #loadFilesWhenVisible(Component, String, String, String, String...)
+     * @see #loadLibrary(Component, Library)
+     */
+    public static CompletableFuture<LoadResult> loadLibraryWhenVisible(Component component, Library library) {
+        assert component != null : "Component cannot be null";
+        assert library != null : "Library cannot be null";
+
+        CompletableFuture<LoadResult> result = new CompletableFuture<>();
+        component.getElement().getNode().runWhenAttached(ui -> loadWhenVisible(ui, component, library, result));
+        return result;
+    }
+
+    private static void loadWhenVisible(UI ui, Component component, Library library, CompletableFuture<LoadResult> result) {
+        loadGraph(ui, library, component.getElement()).whenComplete((loaded, error) -> {
+            if (error == null) {
+                result.complete(loaded);
+            } else if (error instanceof CancellationException) {
+                // Detached before it became visible, e.g. moved to another tab or layout
+                Registration[] attach = new Registration[1];
+                attach[0] = component.addAttachListener(e -> {
+                    attach[0].remove();
+                    loadWhenVisible(e.getUI(), component, library, result);
+                });
             } else {
-                addJavaScript(ui.getPage(),scriptUrl);
+                result.completeExceptionally(error);
             }
-        }
-        setLoadedVersion(ui, libraryName, version);
+        });
+    }
 
+    private static CompletableFuture<LoadResult> loadGraph(UI ui, Library library, Element visibilityTarget) {
+        VaadinSession session = ui.getSession();
+        VaadinService service = session != null ? session.getService() : null;
+        // Scripts added with the Page API cannot wait for their dependencies
+        Batching mode = batching == Batching.NONE ? Batching.LIBRARY : batching;
+        CompletableFuture<LoadResult> result = null;
+        for (Library node : Library.resolve(library)) {
+            String name = node.getName();
+            String loadedVersion = getLoadedVersion(ui, name);
+            if (loadedVersion != null) {
+                result = ClientLoader.get(ui).getResult(name, loadedVersion);
+                continue;
+            }
+            List<String> urls = resolveUrls(service, node.getUrlPattern(), name, node.getVersion(),
+                    node.getFiles().toArray(new String[0]));
+            List<String> dependencies = new ArrayList<>();
+            node.getDependencies().forEach(dependency -> dependencies.add(dependency.getName()));
+            if (visibilityTarget == null) {
+                result = load(ui, name, node.getVersion(), urls, dependencies, mode);
+            } else {
+                LoadRegistry registry = LoadRegistry.get(ui);
+                registry.setPending(name, node.getVersion());
+                result = ClientLoader.get(ui).loadWhenVisible(ui, visibilityTarget, name, node.getVersion(), urls,
+                        dependencies);
+                result.whenComplete((loaded, error) -> {
+                    if (error == null) {
+                        registry.setVersion(name, node.getVersion());
+                    } else {
+                        registry.removePending(name);
+                    }
+                });
+            }
+        }
+        return result;
     }
 
-    private static void importModuleExports( UI ui, String libraryName, String fileUrl) {
-        ui.getPage().executeJs("globalThis[$1]=globalThis[$1] || {}; var f = async () => { var m = await import($0); Object.keys(m).forEach(k => globalThis[$1][k] = m[k])}; return f();", fileUrl, libraryName);
+    /**
+     * Adds a library to the import map of the application, so that ES
+     * modules can import it, and the files under it, by name, e.g.
+     * <code>import * as THREE from 'three'</code>. Modules of several
+     * libraries importing the same package then share a single copy.
+     * <p>
+     * The import map is added to the initial page, so declare the imports at
+     * startup, e.g. in a <code>VaadinServiceInitListener</code>. Imports added
+     * later are sent to each UI with its next load, which browsers apply only
+     * if they support multiple import maps. A library can be mapped to one
+     * version only: mapping another one, or loading another one with the
+     * load methods, is logged as a warning.
+     * <pre>
+     * JSLoader.addImport(JSLoader.URL_PATTERN_UNPKGCOM_FILES, "three", "0.158.0", "build/three.module.js");
+     * </pre>
+     *
+     * @param urlPattern  the URL pattern, e.g. {@link #URL_PATTERN_UNPKGCOM_FILES}
+     * @param libraryName the name of the library, used as the bare specifier
+     * @param version     the version of the library
+     * @param mainFile    the main module, the target of imports of the bare
+     *                    name, or null for patterns without <code>{file}</code>
+     *                    such as {@link #URL_PATTERN_UNPKGCOM}
+     * @return true if the library was added or already mapped to the same
+     * version, false if it is mapped to another version
+     */
+    public static boolean addImport(String urlPattern, String libraryName, String version, String mainFile) {
+        assert libraryName != null && !libraryName.isEmpty() : "Library name cannot be null or empty";
+        assert urlPattern != null && !urlPattern.isEmpty() : "URL Pattern cannot be null or empty";
+        if (version == null || version.isEmpty()) {
+            version = "latest";
+        }
+        UrlTemplate template = UrlTemplate.compile(urlPattern);
+        String url;
+        String prefix;
+        if (template.getPlaceholders().contains("file")) {
+            assert mainFile != null : "Main file is required by the URL pattern";
+            url = template.expand(libraryName, version, mainFile);
+            prefix = template.expand(libraryName, version, "");
+        } else {
+            url = template.expand(libraryName, version, null);
+            prefix = url + "/";
+        }
+        return ImportMap.get().add(libraryName, version, url, prefix.endsWith("/") ? prefix : prefix + "/");
     }
 
     /**
@@ -131,7 +386,8 @@ public class JSLoader {
      */
     public static String getLoadedVersion(Component component, String library) {
         UI ui = getUI(component);
-        return loaded.get(ui.getSession().getSession().getId()+ui.getUIId()+"_"+library);
+        LoadRegistry registry = ui != null ? LoadRegistry.find(ui) : null;
+        return registry != null ? registry.getVersion(library) : null;
     }
 
     /**
@@ -140,10 +396,11 @@ public class JSLoader {
      * @param component   the UI instance to load the library for
      * @param libraryName the name of the library to load
      * @param version     the version of the library to load
+     * @return future completed when the library has been loaded in the browser
      * @see #loadCdnjs(Component, String, String, boolean)
      */
-    public static void loadCdnjs(Component component, String libraryName, String version) {
-        load(component, libraryName, version, libraryName + ".min.js", CDNJS_MIN);
+    public static CompletableFuture<LoadResult> loadCdnjs(Component component, String libraryName, String version) {
+        return load(component, libraryName, version, libraryName + ".min.js", CDNJS_MIN);
     }
 
     /**
@@ -152,12 +409,14 @@ public class JSLoader {
      * @param component   the UI instance to load the library for
      * @param libraryName the name of the library to load
      * @param version     the version of the library to load
+     * @param minified    true to load the minified version
+     * @return future completed when the library has been loaded in the browser
      */
-    public static void loadCdnjs(Component component, String libraryName, String version, boolean minified) {
+    public static CompletableFuture<LoadResult> loadCdnjs(Component component, String libraryName, String version, boolean minified) {
         if (minified) {
-            load(component, libraryName, version, null, CDNJS_MIN);
+            return load(component, libraryName, version, null, CDNJS_MIN);
         } else {
-            load(component, libraryName, version, null, CDNJS);
+            return load(component, libraryName, version, null, CDNJS);
         }
     }
 
@@ -168,12 +427,13 @@ public class JSLoader {
      * @param libraryName the name of the library to load
      * @param version     the version of the library to load
      * @param libraryFile the file(s) to load or null
+     * @return future completed when the library has been loaded in the browser
      */
-    public static void loadUnpkg(Component component, String libraryName, String version, String... libraryFile) {
+    public static CompletableFuture<LoadResult> loadUnpkg(Component component, String libraryName, String version, String... libraryFile) {
         if (libraryFile != null && libraryFile.length > 0) {
-            loadFiles(component, URL_PATTERN_UNPKGCOM_FILES, libraryName, version, libraryFile);
+            return loadFiles(component, URL_PATTERN_UNPKGCOM_FILES, libraryName, version, libraryFile);
         } else {
-            loadFiles(component, URL_PATTERN_UNPKGCOM, libraryName, version, libraryFile);
+            return loadFiles(component, URL_PATTERN_UNPKGCOM, libraryName, version, libraryFile);
         }
     }
 
@@ -185,88 +445,532 @@ public class JSLoader {
      * @param cls Class to load resources from using <code>getResourceAsStream</code>.
      * @param libraryName Name of the library used as part of URL. This is also used to avoid loading twice.
      * @param files The files to load for this library. Supports .js and .css.
+     * @return Future completed when the library has been loaded in the browser.
 
      * @see Class#getResourceAsStream(String)
      * @see #PUBLIC_JAVA_RESOURCE_PATH
      */
-    public static void loadJavaResource(UI ui, Class<?> cls, String libraryName, String... files) {
+    public static CompletableFuture<LoadResult> loadJavaResource(UI ui, Class<?> cls, String libraryName, String... files) {
 
         if (JSLoader.isLoaded(ui, libraryName)) {
-            return;
+            return JSLoader.loadFiles(ui, PUBLIC_JAVA_RESOURCE_PATH + "{library}/{file}", libraryName, "latest", files);
         }
 
+        // Serve the files with the application-wide resource handler
+        JavaResourceHandler handler = JavaResourceHandler.get();
+        handler.register(cls, libraryName, files);
+        ui.getElement().getNode().runWhenAttached(ui2 -> handler.registerTo(ui2.getSession()));
+
         // Load files
-        JSLoader.loadFiles(ui, PUBLIC_JAVA_RESOURCE_PATH +"{library}/{file}", libraryName, "latest", files);
+        if (!bundling) {
+            return JSLoader.loadFiles(ui, PUBLIC_JAVA_RESOURCE_PATH +"{library}/{file}", libraryName, "latest", files);
+        }
+        VaadinSession session = ui.getSession();
+        List<String> urls = javaResourceUrls(session != null ? session.getService() : null, cls, libraryName, files);
+        return load(ui, libraryName, "latest", urls, List.of(), batching);
+    }
 
-        // Handle resource load requests
-        RequestHandler requestHandler = (session, request, response) -> {
-            if (!request.getPathInfo().contains(PUBLIC_JAVA_RESOURCE_PATH+libraryName)) {
-                return false;
+    /**
+     * Builds the URLs of Java resources, with the scripts and style sheets
+     * replaced by their bundles if bundling is enabled.
+     */
+    private static List<String> javaResourceUrls(VaadinService service, Class<?> cls, String libraryName, String... files) {
+        String pattern = PUBLIC_JAVA_RESOURCE_PATH + "{library}/{file}";
+        if (!bundling) {
+            return resolveUrls(service, pattern, libraryName, "latest", files);
+        }
+        List<String> scripts = new ArrayList<>();
+        List<String> styles = new ArrayList<>();
+        for (String file : files) {
+            if (file.toLowerCase().endsWith(".js")) {
+                scripts.add(file);
+            } else if (file.toLowerCase().endsWith(".css")) {
+                styles.add(file);
             }
+        }
+        JavaResourceHandler handler = JavaResourceHandler.get();
+        String scriptBundle = scripts.size() > 1 ? handler.bundle(cls, libraryName, scripts) : null;
+        String styleBundle = styles.size() > 1 ? handler.bundle(cls, libraryName, styles) : null;
 
-            String resourceName = request.getPathInfo()
-                    .substring(request.getPathInfo()
-                            .indexOf(PUBLIC_JAVA_RESOURCE_PATH)+(PUBLIC_JAVA_RESOURCE_PATH+libraryName+"/").length());
-            if (Arrays.asList(files).contains(resourceName)) {
-
-                // Get the resource as a stream
-                InputStream resourceStream = cls.getResourceAsStream(resourceName);
-                if (resourceStream == null) {
-                    // Handle the case where resource is not found
-                    response.sendError(HttpServletResponse.SC_NOT_FOUND, "Failed to load file.");
-                    return true;
+        // Each bundle takes the place of its first file
+        List<String> urls = new ArrayList<>();
+        for (String file : files) {
+            if (scriptBundle != null && scripts.contains(file)) {
+                if (file.equals(scripts.get(0))) {
+                    urls.add(scriptBundle);
                 }
-                try (resourceStream) {
-
-                    response.setContentType(getContentTypeForFileExtension(resourceName));
-                    response.setStatus(HttpServletResponse.SC_OK);
-                    resourceStream.transferTo(response.getOutputStream());
-                } catch (Exception e) {
-                    try {
-                        response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, "Failed to load file.");
-                    } catch (Exception e2) {
-                        // Ignored. Likely header already sent.
-                    }
-                    return true;
+            } else if (styleBundle != null && styles.contains(file)) {
+                if (file.equals(styles.get(0))) {
+                    urls.add(styleBundle);
                 }
-
-                return true;
+            } else {
+                urls.addAll(resolveUrls(service, pattern, libraryName, "latest", file));
             }
-            return false;
-        };
+        }
+        return urls;
+    }
 
-        // Vaadin's request handler (un-)registration magic
-        ui.getElement().getNode().runWhenAttached(ui2 -> ui2.beforeClientResponse(ui2, ctx -> {
-            ctx.getUI().getSession().addRequestHandler(requestHandler);
-            ui2.getElement().getNode().addDetachListener(() -> {
-                ctx.getUI().getSession().removeRequestHandler(requestHandler);
-            });
-        }));
+    /**
+     * Declares a library to preload on every route.
+     * <p>
+     * The files are added to the initial page as
+     * <code>&lt;link rel="preload"&gt;</code>, or
+     * <code>&lt;link rel="modulepreload"&gt;</code> for ES modules, so the
+     * browser fetches them in parallel with the Vaadin bootstrap. The library
+     * is not loaded until one of the load methods is called with the same
+     * arguments, which then reuses the preloaded responses. Browsers warn
+     * about preloaded files not used within a few seconds, so only preload
+     * libraries the page loads right away.
+     * <p>
+     * Call this during application startup, e.g. from a
+     * <code>VaadinServiceInitListener</code>.
+     *
+     * @param urlPattern  the base URL pattern to use for loading the library
+     * @param libraryName the name of the library to preload
+     * @param version     the version of the library to preload
+     * @param file        the files of the library to preload
+     * @see #loadFiles(Component, String, String, String, String...)
+     */
+    public static void preloadFiles(String urlPattern, String libraryName, String version, String... file) {
+        preloadFiles(null, urlPattern, libraryName, version, file);
     }
 
-    /** Utility to get content type for a file extension.
-     *  Currently only supports .js, .css and .txt.
+    /**
+     * Declares a library to preload when the initial page is opened on the
+     * given route.
      *
-     * @param resourceName Name of the resource.
-     * @return Content type for the resource.
+     * @param route       the route target, or null for all routes
+     * @param urlPattern  the base URL pattern to use for loading the library
+     * @param libraryName the name of the library to preload
+     * @param version     the version of the library to preload
+     * @param file        the files of the library to preload
+     * @see #preloadFiles(String, String, String, String...)
      */
-    private static String getContentTypeForFileExtension(String resourceName) {
-        if (resourceName.endsWith(".js") || resourceName.endsWith(".mjs")) {
-            return "application/javascript";
-        } else if (resourceName.endsWith(".css")) {
-            return "text/css";
-        } else {
-            return "text/plain";
+    public static void preloadFiles(Class<? extends Component> route, String urlPattern, String libraryName, String version, String... file) {
+        assert libraryName != null && !libraryName.isEmpty() : "Library name cannot be null or empty";
+        assert urlPattern != null && !urlPattern.isEmpty() : "URL Pattern cannot be null or empty";
+        String resolvedVersion = version == null || version.isEmpty() ? "latest" : version;
+        PreloadListener.get().add(route, service -> resolveUrls(service, urlPattern, libraryName, resolvedVersion, file));
+    }
+
+    /**
+     * Declares a library of Java resources without loading it, so that it
+     * is served right away and checked by {@link #indexJavaResources()}.
+     *
+     * @param cls         class to load resources from
+     * @param libraryName name of the library used as part of URL
+     * @param files       the files of the library
+     * @see #loadJavaResource(UI, Class, String, String...)
+     */
+    public static void registerJavaResource(Class<?> cls, String libraryName, String... files) {
+        assert cls != null : "Class cannot be null";
+        assert libraryName != null && !libraryName.isEmpty() : "Library name cannot be null or empty";
+        JavaResourceHandler.get().register(cls, libraryName, files);
+    }
+
+    /**
+     * Declares a library of Java resources to preload on every route.
+     *
+     * @param cls         class to load resources from
+     * @param libraryName name of the library used as part of URL
+     * @param files       the files to preload
+     * @see #loadJavaResource(UI, Class, String, String...)
+     * @see #preloadFiles(String, String, String, String...)
+     */
+    public static void preloadJavaResource(Class<?> cls, String libraryName, String... files) {
+        preloadJavaResource(null, cls, libraryName, files);
+    }
+
+    /**
+     * Declares a library of Java resources to preload when the initial page
+     * is opened on the given route.
+     *
+     * @param route       the route target, or null for all routes
+     * @param cls         class to load resources from
+     * @param libraryName name of the library used as part of URL
+     * @param files       the files to preload
+     * @see #loadJavaResource(UI, Class, String, String...)
+     * @see #preloadFiles(String, String, String, String...)
+     */
+    public static void preloadJavaResource(Class<? extends Component> route, Class<?> cls, String libraryName, String... files) {
+        // Served before any UI has loaded the library
+        JavaResourceHandler.get().register(cls, libraryName, files);
+        PreloadListener.get().add(route, service -> javaResourceUrls(service, cls, libraryName, files));
+    }
+
+    /**
+     * Sets the maximum size of the in-memory cache for the resources served by
+     * {@link #loadJavaResource(UI, Class, String, String...)}.
+     * <p>
+     * Least recently used resources are evicted when the cache is full. Use
+     * <code>0</code> to disable caching. The default is
+     * {@link ResourceCache#DEFAULT_MAX_SIZE}.
+     *
+     * @param maxBytes the maximum size of the cache in bytes
+     */
+    public static void setResourceCacheSize(long maxBytes) {
+        resourceCache.setMaxSize(maxBytes);
+    }
+
+    /**
+     * Gets the in-memory cache used for the resources served by
+     * {@link #loadJavaResource(UI, Class, String, String...)}.
+     *
+     * @return the resource cache, e.g. for reading hit and miss counters
+     */
+    public static ResourceCache getResourceCache() {
+        return resourceCache;
+    }
+
+    /**
+     * Sets the <code>Cache-Control</code> header sent with the resources served
+     * by {@link #loadJavaResource(UI, Class, String, String...)}.
+     * <p>
+     * The resources are always sent with an <code>ETag</code> and
+     * <code>Last-Modified</code> header, so browsers can revalidate them with a
+     * conditional request answered by <code>304 Not Modified</code>. The
+     * default, {@link #DEFAULT_RESOURCE_CACHE_CONTROL}, makes browsers
+     * revalidate on every use. E.g. <code>public, max-age=3600</code> lets them
+     * use the resource for an hour without asking.
+     *
+     * @param cacheControl the value of the <code>Cache-Control</code> header
+     */
+    public static void setResourceCacheControl(String cacheControl) {
+        assert cacheControl != null && !cacheControl.isEmpty() : "Cache-Control cannot be null or empty";
+        resourceCacheControl = cacheControl;
+    }
+
+    /**
+     * Gets the <code>Cache-Control</code> header sent with the resources served
+     * by {@link #loadJavaResource(UI, Class, String, String...)}.
+     *
+     * @return the value of the <code>Cache-Control</code> header
+     */
+    public static String getResourceCacheControl() {
+        return resourceCacheControl;
+    }
+
+    /**
+     * Sets a directory to extract large classpath resources into, e.g. WASM
+     * binaries, fonts or big minified engines served by
+     * {@link #loadJavaResource(UI, Class, String, String...)}.
+     * <p>
+     * Resources larger than {@link #getLargeResourceThreshold()} are copied
+     * out of their JAR once, named by the hash of their content, and then
+     * served from the file with <code>FileChannel</code> transfers instead
+     * of being inflated and held in the resource cache. Files of the CDN
+     * mirror are served from the store of the mirror the same way. Range
+     * requests are supported, e.g. for resuming downloads. Large resources
+     * are sent without content encoding. The default is null, all resources
+     * are served from memory.
+     *
+     * @param directory the directory, created if needed, or null to disable
+     */
+    public static void setLargeResourceStore(Path directory) {
+        largeResourceStore = directory;
+    }
+
+    /**
+     * Gets the directory large classpath resources are extracted into.
+     *
+     * @return the directory or null if disabled
+     */
+    public static Path getLargeResourceStore() {
+        return largeResourceStore;
+    }
+
+    /**
+     * Sets the size above which resources are served from the large resource
+     * store. The default is {@link #DEFAULT_LARGE_RESOURCE_THRESHOLD}.
+     *
+     * @param bytes the threshold in bytes
+     * @see #setLargeResourceStore(Path)
+     */
+    public static void setLargeResourceThreshold(long bytes) {
+        assert bytes >= 0 : "Threshold cannot be negative";
+        largeResourceThreshold = bytes;
+    }
+
+    /**
+     * Gets the size above which resources are served from the large resource
+     * store.
+     *
+     * @return the threshold in bytes
+     */
+    public static long getLargeResourceThreshold() {
+        return largeResourceThreshold;
+    }
+
+    /**
+     * Enables or disables content-hash fingerprinted URLs for local resources.
+     * <p>
+     * When enabled, URLs of classpath resources and web application resources
+     * loaded with this class include a hash of the content, e.g.
+     * <code>/resources/mylib/mylib.&lt;hash&gt;.js</code>. These URLs are
+     * served with <code>Cache-Control: public, max-age=31536000, immutable</code>,
+     * so browsers never need to revalidate them, and a new version of the
+     * content gets a new URL. The hash of each resource is computed once, on
+     * first load. External URLs, e.g. cdnjs.com and unpkg.com, are not
+     * affected. Disabled by default.
+     *
+     * @param enabled true to fingerprint local resource URLs
+     */
+    public static void setFingerprinting(boolean enabled) {
+        fingerprinting = enabled;
+    }
+
+    /**
+     * Checks whether local resource URLs are fingerprinted.
+     *
+     * @return true if content-hash fingerprinted URLs are used
+     * @see #setFingerprinting(boolean)
+     */
+    public static boolean isFingerprinting() {
+        return fingerprinting;
+    }
+
+    /**
+     * Enables or disables bundling of the resources loaded with
+     * {@link #loadJavaResource(UI, Class, String, String...)}.
+     * <p>
+     * When enabled, the classic scripts (<code>.js</code>) of a library are
+     * concatenated into one file and its style sheets (<code>.css</code>) into
+     * another, so a library of many small files takes two requests. The
+     * bundles are built once, kept in the resource cache and served under
+     * fingerprinted URLs, e.g. <code>/resources/mylib/mylib.bundle.&lt;hash&gt;.js</code>,
+     * with an index source map pointing back to the original files. ES
+     * modules are not bundled. <code>@import</code> rules are only valid in
+     * the first style sheet of a bundle. Scripts are not bundled if one of
+     * them starts with a directive such as <code>"use strict"</code>, which
+     * would change the mode of the scripts after it. A syntax error in one
+     * script of a bundle keeps all of its scripts from running. Disabled by
+     * default.
+     *
+     * @param enabled true to bundle the scripts and style sheets of a library
+     */
+    public static void setBundling(boolean enabled) {
+        bundling = enabled;
+    }
+
+    /**
+     * Checks whether the resources of a library are bundled.
+     *
+     * @return true if bundling is enabled
+     * @see #setBundling(boolean)
+     */
+    public static boolean isBundling() {
+        return bundling;
+    }
+
+    /**
+     * Resolves every Java resource declared so far, with
+     * {@link #registerJavaResource(Class, String, String...)},
+     * {@link #preloadJavaResource(Class, String, String...)} or loaded
+     * already, and loads them into the resource cache in parallel.
+     * <p>
+     * Call this at startup, e.g. from a <code>VaadinServiceInitListener</code>
+     * after declaring the libraries, so that a missing or misnamed file fails
+     * the deployment instead of a browser, and the first users are served
+     * from a warm cache.
+     *
+     * @return the index of the resources, with their size, hash and content type
+     * @throws IllegalStateException listing the resources that cannot be served
+     * @see #setStartupIndex(boolean)
+     */
+    public static ResourceIndex indexJavaResources() {
+        return JavaResourceHandler.get().index();
+    }
+
+    /**
+     * Enables or disables indexing the Java resources when the Vaadin service
+     * starts, see {@link #indexJavaResources()}. The libraries must then be
+     * declared before, e.g. in <code>main</code> or a static initializer.
+     * Disabled by default.
+     *
+     * @param enabled true to index the resources at startup
+     */
+    public static void setStartupIndex(boolean enabled) {
+        startupIndex = enabled;
+    }
+
+    /**
+     * Checks whether the Java resources are indexed when the Vaadin service
+     * starts.
+     *
+     * @return true if enabled
+     * @see #setStartupIndex(boolean)
+     */
+    public static boolean isStartupIndex() {
+        return startupIndex;
+    }
+
+    /**
+     * Enables serving CDN libraries from a local mirror.
+     * <p>
+     * URLs of files fetched into the mirror, e.g. with
+     * {@link #loadCdnjs(Component, String, String)} or
+     * {@link #loadUnpkg(Component, String, String, String...)}, are rewritten
+     * to same-origin URLs under {@link CdnMirror#MIRROR_PATH}, served with the
+     * same caching headers as the Java classpath resources. Other URLs are not
+     * affected.
+     *
+     * @param mirror the mirror to use or null to load from the CDNs
+     */
+    public static void setMirror(CdnMirror mirror) {
+        JSLoader.mirror = mirror;
+    }
+
+    /**
+     * Gets the mirror used for CDN libraries.
+     *
+     * @return the mirror or null if not enabled
+     * @see #setMirror(CdnMirror)
+     */
+    public static CdnMirror getMirror() {
+        return mirror;
+    }
+
+    /**
+     * Enables Subresource Integrity checks of the files found in a manifest.
+     * <p>
+     * Files with a hash in the manifest are loaded with <code>integrity</code>
+     * and <code>crossorigin="anonymous"</code> attributes, so the browser
+     * refuses content that does not match, e.g. a compromised CDN. The CDN
+     * must allow CORS, as cdnjs.com and unpkg.com do. With
+     * {@link Batching#NONE} these files are added by the client-side loader
+     * instead of the <code>Page</code> API. Files served from the
+     * {@link #setMirror(CdnMirror) mirror} are checked against the hashes of
+     * their CDN URLs.
+     *
+     * @param manifest the manifest or null to load without integrity checks
+     */
+    public static void setIntegrityManifest(IntegrityManifest manifest) {
+        integrityManifest = manifest;
+    }
+
+    /**
+     * Gets the manifest of the Subresource Integrity hashes.
+     *
+     * @return the manifest or null if not enabled
+     * @see #setIntegrityManifest(IntegrityManifest)
+     */
+    public static IntegrityManifest getIntegrityManifest() {
+        return integrityManifest;
+    }
+
+    /**
+     * Gets the integrity metadata of a file from the manifest, by the URL the
+     * file was resolved from if it is served from the mirror or fingerprinted.
+     *
+     * @param url the URL of the file as loaded
+     * @return the integrity or null if there is no manifest or no hash for the URL
+     */
+    static String getIntegrity(String url) {
+        IntegrityManifest manifest = integrityManifest;
+        return manifest != null ? manifest.get(originalUrls.getOrDefault(url, url)) : null;
+    }
+
+    /**
+     * Sets how the client-side work of loading libraries is batched.
+     * <p>
+     * With {@link Batching#LIBRARY} or {@link Batching#ROUND_TRIP} the files
+     * are loaded by a small client-side loader, sent to the browser once per
+     * UI. This reduces the number and size of the JavaScript invocations in
+     * the responses. Scripts are still fetched in parallel and evaluated in
+     * the order they are given. With {@link Batching#ROUND_TRIP}, JavaScript
+     * executed right after a load call runs before the library is added.
+     *
+     * @param batching the batching mode, {@link Batching#NONE} by default
+     */
+    public static void setBatching(Batching batching) {
+        assert batching != null : "Batching cannot be null";
+        JSLoader.batching = batching;
+    }
+
+    /**
+     * Gets how the client-side work of loading libraries is batched.
+     *
+     * @return the batching mode
+     * @see #setBatching(Batching)
+     */
+    public static Batching getBatching() {
+        return batching;
+    }
+
+    /**
+     * Sets the instrumentation hooks notified of loads and served resources.
+     *
+     * @param loaderMetrics the metrics, or null to record nothing
+     * @see LoaderMetrics
+     */
+    public static void setMetrics(LoaderMetrics loaderMetrics) {
+        metrics = loaderMetrics != null ? loaderMetrics : LoaderMetrics.NONE;
+    }
+
+    /**
+     * Gets the instrumentation hooks notified of loads and served resources.
+     *
+     * @return the metrics, {@link LoaderMetrics#NONE} if not set
+     */
+    public static LoaderMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Builds the URLs of the files of a library, served from the CDN mirror
+     * and fingerprinted if enabled.
+     *
+     * @param service     the service used to find web application resources
+     *                    to fingerprint, or null
+     * @param urlPattern  the URL pattern with placeholders, see {@link UrlTemplate}
+     * @param libraryName the name of the library
+     * @param version     the version of the library
+     * @param file        the files of the library or null
+     * @return the URLs in the order of the files, mutable
+     */
+    static List<String> resolveUrls(VaadinService service, String urlPattern, String libraryName, String version, String... file) {
+        List<String> urls = buildUrls(urlPattern, libraryName, version, file);
+        CdnMirror cdnMirror = mirror;
+        for (int i = 0; i < urls.size(); i++) {
+            String original = urls.get(i);
+            String url = original;
+            if (cdnMirror != null) {
+                String localUrl = cdnMirror.getLocalUrl(url);
+                url = localUrl != null ? localUrl : url;
+            }
+            if (fingerprinting) {
+                url = JavaResourceHandler.get().fingerprint(service, url);
+            }
+            if (!url.equals(original)) {
+                // The manifest has the hashes of the CDN files
+                originalUrls.put(url, original);
+            }
+            urls.set(i, url);
         }
+        return urls;
     }
 
-    private static String replacePlaceholders(String baseUrlPattern, Map<String, String> replacements) {
-        String result = baseUrlPattern;
-        for (Map.Entry<String, String> entry : replacements.entrySet()) {
-            if (entry.getValue() != null)
-                result = result.replace("{" + entry.getKey() + "}", entry.getValue());
+    /**
+     * Builds the URLs of the files of a library as given by the pattern.
+     *
+     * @param urlPattern  the URL pattern with placeholders, see {@link UrlTemplate}
+     * @param libraryName the name of the library
+     * @param version     the version of the library
+     * @param file        the files of the library or null
+     * @return the URLs in the order of the files, mutable
+     */
+    static List<String> buildUrls(String urlPattern, String libraryName, String version, String... file) {
+        UrlTemplate template = UrlTemplate.compile(urlPattern);
+        if (file == null || file.length == 0) {
+            List<String> urls = new ArrayList<>(1);
+            urls.add(template.expand(libraryName, version, null));
+            return urls;
         }
-        return result;
+        List<String> urls = new ArrayList<>(file.length);
+        for (String f : file) {
+            urls.add(template.expand(libraryName, version, f));
+        }
+        return urls;
     }
 
     private static UI getUI(Component component) {
@@ -274,13 +978,12 @@ public class JSLoader {
         return component.getUI().orElse(UI.getCurrent());  // Use ThreadLocal as the last resort
     }
 
-    private static void setLoadedVersion(UI ui, String library, String version) {
-        loaded.put(ui.getSession().getSession().getId()+ui.getUIId()+"_"+library,version);
-        ui.getPage().executeJs("window.vaadinjsloader = window.vaadinjsloader || {}; window.vaadinjsloader[$0] = $1; return window.vaadinjsloader;", library, version);
-    }
-
     /**
      * Check if the given library has been loaded for the UI.
+     * <p>
+     * This is true as soon as loading has been requested on the server. Use
+     * the future returned by the load methods to know when the browser has
+     * actually loaded the library.
      *
      * @param component the UI instance to check
      * @param library   the name of the library to check
@@ -290,6 +993,21 @@ public class JSLoader {
         return getLoadedVersion(component, library) != null;
     }
 
+    /**
+     * Check if the given library is waiting for its component to become
+     * visible before it is loaded.
+     *
+     * @param component the UI instance to check
+     * @param library   the name of the library to check
+     * @return true if the library is pending
+     * @see #loadFilesWhenVisible(Component, String, String, String, String...)
+     */
+    public static boolean isPending(Component component, String library) {
+        UI ui = getUI(component);
+        LoadRegistry registry = ui != null ? LoadRegistry.find(ui) : null;
+        return registry != null && registry.getPendingVersion(library) != null;
+    }
+
     /**
      * Check if the given library and version has been loaded for the UI.
      *
@@ -307,10 +1025,6 @@ public class JSLoader {
         invokePageMethod(page, "addStyleSheet", url);
     }
 
-    private static void addJsModule(Page page, String url) {
-        invokePageMethod(page, "addJsModule", url);
-    }
-
     private static void addJavaScript(Page page, String url) {
         invokePageMethod(page, "addJavaScript", url);
     }
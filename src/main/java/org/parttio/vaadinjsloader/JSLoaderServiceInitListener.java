@@ -0,0 +1,44 @@
+package org.parttio.vaadinjsloader;
+
+import com.vaadin.flow.server.ServiceInitEvent;
+import com.vaadin.flow.server.VaadinServiceInitListener;
+import org.slf4j.LoggerFactory;
+
+import java.util.ServiceLoader;
+
+/**
+ * Installs the application-wide handler for Java classpath resources loaded
+ * with {@link JSLoader#loadJavaResource(com.vaadin.flow.component.UI, Class, String, String...)}
+ * and the listener adding the preload tags of the libraries declared with
+ * {@link JSLoader#preloadFiles(String, String, String, String...)} and the
+ * import map of the libraries declared with
+ * {@link JSLoader#addImport(String, String, String, String)}. Also
+ * installs the {@link LoaderMetrics} found on the classpath, unless metrics
+ * have been set already, and indexes the Java resources if
+ * {@link JSLoader#setStartupIndex(boolean) enabled}.
+ * <p>
+ * Registered through <code>META-INF/services</code>, so no configuration is
+ * needed in the application.
+ */
+public class JSLoaderServiceInitListener implements VaadinServiceInitListener {
+
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    public void serviceInit(ServiceInitEvent event) {
+        JavaResourceHandler handler = JavaResourceHandler.get();
+        event.addRequestHandler(handler);
+        handler.setInstalled();
+        event.addIndexHtmlRequestListener(PreloadListener.get());
+        event.addIndexHtmlRequestListener(ImportMap.get());
+        if (JSLoader.getMetrics() == LoaderMetrics.NONE) {
+            ServiceLoader.load(LoaderMetrics.class, event.getSource().getClassLoader()).findFirst()
+                    .ifPresent(JSLoader::setMetrics);
+        }
+        if (JSLoader.isStartupIndex()) {
+            // Fails the deployment if a declared resource is missing
+            ResourceIndex index = JSLoader.indexJavaResources();
+            LoggerFactory.getLogger(JSLoaderServiceInitListener.class).info("Indexed Java resources: {}", index);
+        }
+    }
+}
@@ -0,0 +1,787 @@
+package org.parttio.vaadinjsloader;
+
+import com.vaadin.flow.server.RequestHandler;
+import com.vaadin.flow.server.VaadinRequest;
+import com.vaadin.flow.server.VaadinResponse;
+import com.vaadin.flow.server.VaadinService;
+import com.vaadin.flow.server.VaadinSession;
+import jakarta.servlet.http.HttpServletResponse;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.net.URL;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Serves the Java classpath resources registered with
+ * {@link JSLoader#loadJavaResource(com.vaadin.flow.component.UI, Class, String, String...)}
+ * under {@link JSLoader#PUBLIC_JAVA_RESOURCE_PATH}.
+ * <p>
+ * A single instance serves the whole application. It is installed once by
+ * {@link JSLoaderServiceInitListener} and dispatches requests with a lookup
+ * from the library name and file name to the class used to load the resource.
+ * It also serves the fingerprinted URLs created by
+ * {@link #fingerprint(VaadinService, String)}.
+ * <p>
+ * Uncompressed responses support single byte ranges. Resources above
+ * {@link JSLoader#getLargeResourceThreshold()} are served from files of the
+ * {@link JSLoader#setLargeResourceStore(java.nio.file.Path) large resource store}
+ * instead of memory.
+ */
+final class JavaResourceHandler implements RequestHandler {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final JavaResourceHandler INSTANCE = new JavaResourceHandler();
+
+    private static final String SESSION_ATTRIBUTE = JavaResourceHandler.class.getName();
+
+    /** <code>Cache-Control</code> of the fingerprinted URLs, their content never changes. */
+    static final String IMMUTABLE_CACHE_CONTROL = "public, max-age=31536000, immutable";
+
+    /** Number of characters of the content hash in fingerprinted URLs. */
+    static final int FINGERPRINT_LENGTH = 12;
+
+    /** File extension -> content type. */
+    private static final Map<String, String> CONTENT_TYPES = Map.ofEntries(
+            Map.entry("js", "application/javascript"),
+            Map.entry("mjs", "application/javascript"),
+            Map.entry("css", "text/css"),
+            Map.entry("json", "application/json"),
+            Map.entry("map", "application/json"),
+            Map.entry("wasm", "application/wasm"),
+            Map.entry("svg", "image/svg+xml"),
+            Map.entry("png", "image/png"),
+            Map.entry("jpg", "image/jpeg"),
+            Map.entry("jpeg", "image/jpeg"),
+            Map.entry("gif", "image/gif"),
+            Map.entry("webp", "image/webp"),
+            Map.entry("woff", "font/woff"),
+            Map.entry("woff2", "font/woff2"),
+            Map.entry("ttf", "font/ttf"),
+            Map.entry("otf", "font/otf"),
+            Map.entry("html", "text/html"),
+            Map.entry("txt", "text/plain"));
+
+    /** Supported content encodings and the extensions of their precompressed files. */
+    private static final Map<String, String> ENCODING_EXTENSIONS = Map.of("br", "br", "gzip", "gz");
+
+    /** Library name -> file name -> classpath resource. */
+    private final Map<String, Map<String, Target>> libraries = new ConcurrentHashMap<>();
+
+    /** Plain URL -> fingerprinted URL. */
+    private final Map<String, String> fingerprints = new ConcurrentHashMap<>();
+
+    /** Fingerprinted URL -> resource. */
+    private final Map<String, Target> immutables = new ConcurrentHashMap<>();
+
+    /** Class, library and files -> fingerprinted URL of their bundle, empty if not bundled. */
+    private final Map<String, String> bundles = new ConcurrentHashMap<>();
+
+    /** URL under {@link CdnMirror#MIRROR_PATH} -> mirrored file. */
+    private final Map<String, Target> mirrored = new ConcurrentHashMap<>();
+
+    private volatile boolean installed;
+
+    private JavaResourceHandler() {
+    }
+
+    static JavaResourceHandler get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Marks the handler as installed application-wide, so it no longer needs
+     * to be registered to individual sessions.
+     */
+    void setInstalled() {
+        installed = true;
+    }
+
+    /**
+     * Allows the given files of a library to be served from the given class.
+     *
+     * @param cls     class to load the resources with
+     * @param library name of the library used as part of the URL
+     * @param files   names of the files to serve
+     */
+    void register(Class<?> cls, String library, String... files) {
+        Map<String, Target> libraryFiles = libraries.computeIfAbsent(library, l -> new ConcurrentHashMap<>());
+        for (String file : files) {
+            libraryFiles.putIfAbsent(file, new Target(cls, file));
+        }
+    }
+
+    /**
+     * Stops serving the files of a library, for tests.
+     *
+     * @param library name of the library used as part of the URL
+     */
+    void unregister(String library) {
+        libraries.remove(library);
+    }
+
+    /**
+     * Serializes the handler as a reference to the single instance, since
+     * it is held by sessions when registered with
+     * {@link #registerTo(VaadinSession)} and its resources refer to class
+     * loaders.
+     *
+     * @return the serialized form
+     */
+    private Object writeReplace() {
+        return new SerializedForm();
+    }
+
+    /**
+     * Registers the handler to the given session unless it has been installed
+     * application-wide.
+     * <p>
+     * This is a fallback for environments where
+     * {@link JSLoaderServiceInitListener} is not picked up.
+     *
+     * @param session the session to register the handler to
+     */
+    void registerTo(VaadinSession session) {
+        if (!installed && session.getAttribute(SESSION_ATTRIBUTE) == null) {
+            session.setAttribute(SESSION_ATTRIBUTE, Boolean.TRUE);
+            session.addRequestHandler(this);
+        }
+    }
+
+    /**
+     * Rewrites the URL of a local resource to include a hash of its content,
+     * e.g. <code>/resources/lib/file.js</code> to
+     * <code>/resources/lib/file.&lt;hash&gt;.js</code>, and makes this handler
+     * serve the rewritten URL as an immutable resource.
+     * <p>
+     * Both classpath resources under {@link JSLoader#PUBLIC_JAVA_RESOURCE_PATH}
+     * and web application resources are supported. Other URLs, e.g. CDN URLs,
+     * are returned as is. The hash is computed on first use and memoized.
+     *
+     * @param service the service to look up web application resources from or null
+     * @param url     the URL to rewrite
+     * @return the fingerprinted URL or the given URL
+     */
+    String fingerprint(VaadinService service, String url) {
+        String fingerprinted = fingerprints.get(url);
+        if (fingerprinted != null) {
+            return fingerprinted;
+        }
+        Target target = resolve(url);
+        if (target == null && service != null && url.startsWith("/") && !url.startsWith("//")) {
+            URL resourceUrl = service.getStaticResource(url);
+            if (resourceUrl != null) {
+                target = new Target(url.substring(url.lastIndexOf('/') + 1), resourceUrl);
+            }
+        }
+        if (target == null) {
+            return url;
+        }
+        ClasspathResource resource;
+        try {
+            resource = target.get(JSLoader.getResourceCache(), null);
+        } catch (IOException e) {
+            return url;
+        }
+        if (resource == null) {
+            return url;
+        }
+        // The entity tag is a quoted URL-safe hash of the content
+        fingerprinted = insertHash(url, resource.getETag().substring(1, 1 + FINGERPRINT_LENGTH));
+        immutables.put(fingerprinted, target);
+        fingerprints.put(url, fingerprinted);
+        return fingerprinted;
+    }
+
+    /**
+     * Concatenates files of a library into a bundle served under a
+     * fingerprinted URL, e.g. <code>/resources/lib/lib.bundle.&lt;hash&gt;.js</code>,
+     * with an index source map next to it. The bundle is built on first use
+     * and kept in the resource cache.
+     *
+     * @param cls     class to load the files with
+     * @param library name of the library used as part of the URL
+     * @param files   the classic scripts or the style sheets of the library,
+     *                all of the same type, in order
+     * @return the URL of the bundle, or null if a file cannot be read or the
+     * files cannot be concatenated, see {@link Bundle#concatenate(List, List, boolean, String)}
+     */
+    String bundle(Class<?> cls, String library, List<String> files) {
+        String key = cls.getName() + "|" + library + "|" + String.join("|", files);
+        String url = bundles.get(key);
+        if (url != null) {
+            return url.isEmpty() ? null : url;
+        }
+        register(cls, library, files.toArray(new String[0]));
+        Map<String, Target> libraryFiles = libraries.get(library);
+        List<Target> parts = new ArrayList<>();
+        List<String> sources = new ArrayList<>();
+        for (String file : files) {
+            parts.add(libraryFiles.get(file));
+            sources.add(JSLoader.PUBLIC_JAVA_RESOURCE_PATH + library + "/" + file);
+        }
+        String name = library + ".bundle" + (files.get(0).toLowerCase().endsWith(".css") ? ".css" : ".js");
+        Target bundle = new Target(name, name, "bundle:" + key, parts, sources);
+
+        ResourceCache cache = JSLoader.getResourceCache();
+        Bundle built;
+        ClasspathResource resource;
+        try {
+            built = bundle.build(cache);
+            resource = built != null ? bundle.get(cache, null) : null;
+        } catch (IOException e) {
+            return null;
+        }
+        if (resource == null) {
+            // Loaded as separate files from now on
+            bundles.put(key, "");
+            return null;
+        }
+        url = insertHash(JSLoader.PUBLIC_JAVA_RESOURCE_PATH + library + "/" + name,
+                resource.getETag().substring(1, 1 + FINGERPRINT_LENGTH));
+        immutables.put(url, bundle);
+        // Named after the content, so that bundles of other files of the library do not replace it
+        Target sourceMap = new Target(built.getSourceMapName(), name, "bundle:" + key + ".map", parts, sources);
+        immutables.put(JSLoader.PUBLIC_JAVA_RESOURCE_PATH + library + "/" + sourceMap.name, sourceMap);
+        bundles.put(key, url);
+        return url;
+    }
+
+    /**
+     * Resolves and loads every registered classpath resource in parallel,
+     * warming the resource cache, including the gzip encoded representation
+     * of text resources, and the fingerprinted URLs if enabled.
+     *
+     * @return the index of the resources
+     * @throws IllegalStateException listing the resources that cannot be found or read
+     */
+    ResourceIndex index() {
+        List<String> urls = new ArrayList<>();
+        List<Target> targets = new ArrayList<>();
+        libraries.forEach((library, files) -> files.forEach((file, target) -> {
+            urls.add(JSLoader.PUBLIC_JAVA_RESOURCE_PATH + library + "/" + file);
+            targets.add(target);
+        }));
+        ResourceCache cache = JSLoader.getResourceCache();
+        List<String> errors = new CopyOnWriteArrayList<>();
+        List<ResourceIndex.Entry> entries = IntStream.range(0, urls.size()).parallel().mapToObj(i -> {
+            String url = urls.get(i);
+            Target target = targets.get(i);
+            try {
+                ClasspathResource resource = target.get(cache, null);
+                if (resource == null) {
+                    errors.add(url + " not found as " + target.path);
+                    return null;
+                }
+                String encoding = target.compressible ? target.negotiate("gzip, br") : null;
+                if (encoding != null) {
+                    target.get(cache, encoding);
+                }
+                if (JSLoader.isFingerprinting()) {
+                    fingerprint(null, url);
+                }
+                String eTag = resource.getETag();
+                return new ResourceIndex.Entry(url, resource.getLength(), eTag.substring(1, eTag.length() - 1),
+                        getContentTypeForFileExtension(target.name), resource.getIntegrity());
+            } catch (IOException e) {
+                errors.add(url + " cannot be read: " + e.getMessage());
+                return null;
+            }
+        }).collect(Collectors.toList());
+        if (!errors.isEmpty()) {
+            throw new IllegalStateException("Java resources cannot be served:\n" + String.join("\n", errors));
+        }
+        return new ResourceIndex(entries);
+    }
+
+    static String insertHash(String url, String hash) {
+        int dot = url.lastIndexOf('.');
+        if (dot < url.lastIndexOf('/')) {
+            return url + "." + hash;
+        }
+        return url.substring(0, dot) + "." + hash + url.substring(dot);
+    }
+
+    @Override
+    public boolean handleRequest(VaadinSession session, VaadinRequest request, VaadinResponse response) throws IOException {
+        String path = request.getPathInfo();
+        if (path == null) {
+            return false;
+        }
+        if (!immutables.isEmpty()) {
+            Target target = immutables.get(path);
+            if (target != null) {
+                return serve(target, IMMUTABLE_CACHE_CONTROL, request, response);
+            }
+        }
+        Target target = resolve(path);
+        if (target == null) {
+            if (path.startsWith(JSLoader.PUBLIC_JAVA_RESOURCE_PATH)) {
+                JSLoader.getMetrics().resourceNotFound(path);
+            }
+            return false;
+        }
+        return serve(target, JSLoader.getResourceCacheControl(), request, response);
+    }
+
+    /**
+     * Finds the classpath resource registered for a path under
+     * {@link JSLoader#PUBLIC_JAVA_RESOURCE_PATH}, or the file of the CDN
+     * mirror for a path under {@link CdnMirror#MIRROR_PATH}.
+     */
+    private Target resolve(String path) {
+        if (!path.startsWith(JSLoader.PUBLIC_JAVA_RESOURCE_PATH)) {
+            return null;
+        }
+        if (path.startsWith(CdnMirror.MIRROR_PATH)) {
+            return resolveMirrored(path);
+        }
+        int start = JSLoader.PUBLIC_JAVA_RESOURCE_PATH.length();
+        int separator = path.indexOf('/', start);
+        if (separator < 0) {
+            return null;
+        }
+        Map<String, Target> libraryFiles = libraries.get(path.substring(start, separator));
+        if (libraryFiles == null) {
+            return null;
+        }
+        return libraryFiles.get(path.substring(separator + 1));
+    }
+
+    private Target resolveMirrored(String path) {
+        CdnMirror mirror = JSLoader.getMirror();
+        URL file = mirror != null ? mirror.getFile(path) : null;
+        if (file == null) {
+            return null;
+        }
+        Target target = mirrored.get(path);
+        if (target == null || !target.path.equals(file.toExternalForm())) {
+            target = new Target(path.substring(path.lastIndexOf('/') + 1), file);
+            mirrored.put(path, target);
+        }
+        return target;
+    }
+
+    private static boolean serve(Target target, String cacheControl, VaadinRequest request, VaadinResponse response) throws IOException {
+        long startTime = System.nanoTime();
+        ResourceCache cache = JSLoader.getResourceCache();
+        String encoding = target.compressible ? target.negotiate(request.getHeader("Accept-Encoding")) : null;
+        String path = target.path(encoding);
+
+        String ifNoneMatch = request.getHeader("If-None-Match");
+        long ifModifiedSince = ifNoneMatch == null ? request.getDateHeader("If-Modified-Since") : -1;
+        if (ifNoneMatch != null || ifModifiedSince >= 0) {
+            // Answer from the validators without touching the content
+            ClasspathResource validators = cache.getValidators(target.owner, path);
+            if (validators != null && validators.isNotModified(ifNoneMatch, ifModifiedSince)) {
+                writeHeaders(response, validators, target, encoding, cacheControl);
+                response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                return served(request, HttpServletResponse.SC_NOT_MODIFIED, 0, startTime);
+            }
+        }
+
+        ClasspathResource resource;
+        try {
+            resource = target.get(cache, encoding);
+        } catch (IOException e) {
+            response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, "Failed to load file.");
+            return served(request, HttpServletResponse.SC_INTERNAL_SERVER_ERROR, 0, startTime);
+        }
+        if (resource == null) {
+            // Handle the case where resource is not found
+            response.sendError(HttpServletResponse.SC_NOT_FOUND, "Failed to load file.");
+            return served(request, HttpServletResponse.SC_NOT_FOUND, 0, startTime);
+        }
+
+        writeHeaders(response, resource, target, encoding, cacheControl);
+        if (resource.isNotModified(ifNoneMatch, ifModifiedSince)) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return served(request, HttpServletResponse.SC_NOT_MODIFIED, 0, startTime);
+        }
+        response.setContentType(getContentTypeForFileExtension(target.name));
+        long length = resource.getLength();
+        long start = 0;
+        long end = length - 1;
+        int status = HttpServletResponse.SC_OK;
+        if (encoding == null) {
+            // Ranges of an encoded representation would not help resuming, so only for identity
+            response.setHeader("Accept-Ranges", "bytes");
+            String range = request.getHeader("Range");
+            if (range != null && matchesIfRange(request, resource)) {
+                long[] bytes = parseRange(range, length);
+                if (bytes != null && bytes.length == 0) {
+                    response.setHeader("Content-Range", "bytes */" + length);
+                    response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                    return served(request, HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE, 0, startTime);
+                }
+                if (bytes != null) {
+                    start = bytes[0];
+                    end = bytes[1];
+                    status = HttpServletResponse.SC_PARTIAL_CONTENT;
+                    response.setHeader("Content-Range", "bytes " + start + "-" + end + "/" + length);
+                }
+            }
+        }
+        long count = end - start + 1;
+        if (count <= Integer.MAX_VALUE) {
+            response.setContentLength((int) count);
+        } else {
+            response.setHeader("Content-Length", Long.toString(count));
+        }
+        response.setStatus(status);
+        if (resource.getContent() != null) {
+            response.getOutputStream().write(resource.getContent(), (int) start, (int) count);
+        } else {
+            transfer(resource.getFile(), start, count, response.getOutputStream());
+        }
+        return served(request, status, count, startTime);
+    }
+
+    /** Reports a response to the metrics. */
+    private static boolean served(VaadinRequest request, int status, long bytes, long startTime) {
+        JSLoader.getMetrics().resourceServed(request.getPathInfo(), status, bytes, System.nanoTime() - startTime);
+        return true;
+    }
+
+    /**
+     * Copies a part of a file to the response with <code>FileChannel</code>
+     * transfers, so neither the file nor the response is held in memory.
+     */
+    private static void transfer(Path file, long position, long count, OutputStream out) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            // Not closed, that would close the response
+            WritableByteChannel target = Channels.newChannel(out);
+            while (count > 0) {
+                long transferred = channel.transferTo(position, count, target);
+                if (transferred <= 0) {
+                    throw new IOException("Unexpected end of " + file);
+                }
+                position += transferred;
+                count -= transferred;
+            }
+        }
+    }
+
+    /** Checks the <code>If-Range</code> header, a range of a changed resource is not useful. */
+    private static boolean matchesIfRange(VaadinRequest request, ClasspathResource resource) {
+        String ifRange = request.getHeader("If-Range");
+        if (ifRange == null) {
+            return true;
+        }
+        if (ifRange.startsWith("\"")) {
+            return ifRange.equals(resource.getETag());
+        }
+        if (ifRange.startsWith("W/")) {
+            // Weak tags never match
+            return false;
+        }
+        try {
+            long date = request.getDateHeader("If-Range");
+            return resource.getLastModified() > 0 && resource.getLastModified() / 1000 == date / 1000;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Parses a <code>Range</code> header with a single byte range.
+     *
+     * @param range  the header
+     * @param length the length of the resource
+     * @return the first and last byte of the range, an empty array if the
+     * range cannot be satisfied or null if the header is not supported and
+     * the whole resource is sent, e.g. for multiple ranges
+     */
+    static long[] parseRange(String range, long length) {
+        if (!range.startsWith("bytes=") || range.indexOf(',') >= 0) {
+            return null;
+        }
+        String spec = range.substring("bytes=".length()).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0) {
+            return null;
+        }
+        String first = spec.substring(0, dash).trim();
+        String last = spec.substring(dash + 1).trim();
+        try {
+            if (first.isEmpty()) {
+                // Suffix range, e.g. the last 500 bytes
+                long suffix = last.isEmpty() ? -1 : Long.parseLong(last);
+                if (suffix < 0) {
+                    return null;
+                }
+                return suffix == 0 || length == 0 ? new long[0] : new long[]{Math.max(0, length - suffix), length - 1};
+            }
+            long start = Long.parseLong(first);
+            long end = last.isEmpty() ? Long.MAX_VALUE : Long.parseLong(last);
+            if (start < 0 || end < start) {
+                return null;
+            }
+            return start >= length ? new long[0] : new long[]{start, Math.min(end, length - 1)};
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static void writeHeaders(VaadinResponse response, ClasspathResource resource, Target target,
+                                     String encoding, String cacheControl) {
+        response.setHeader("ETag", resource.getETag());
+        if (resource.getLastModified() > 0) {
+            response.setDateHeader("Last-Modified", resource.getLastModified());
+        }
+        response.setHeader("Cache-Control", cacheControl);
+        if (target.compressible) {
+            response.setHeader("Vary", "Accept-Encoding");
+        }
+        if (encoding != null) {
+            response.setHeader("Content-Encoding", encoding);
+        }
+    }
+
+    /**
+     * Picks the preferred encoding accepted by the client.
+     *
+     * @param acceptEncoding the <code>Accept-Encoding</code> header or null
+     * @param brotli         true if a brotli encoded representation is available
+     * @return <code>br</code>, <code>gzip</code> or null for no encoding
+     */
+    static String negotiate(String acceptEncoding, boolean brotli) {
+        if (acceptEncoding == null) {
+            return null;
+        }
+        boolean br = false;
+        boolean gzip = false;
+        for (String coding : acceptEncoding.split(",")) {
+            int parameters = coding.indexOf(';');
+            String name = (parameters < 0 ? coding : coding.substring(0, parameters)).trim();
+            if (parameters >= 0 && coding.substring(parameters + 1).replace(" ", "").matches("q=0(\\.0*)?")) {
+                continue;
+            }
+            br |= name.equals("br") || name.equals("*");
+            gzip |= name.equals("gzip") || name.equals("*");
+        }
+        if (br && brotli) {
+            return "br";
+        }
+        return gzip ? "gzip" : null;
+    }
+
+    /** Utility to get content type for a file extension.
+     *  Supports scripts, style sheets, JSON and source maps, WebAssembly,
+     *  fonts and images, other files are served as text.
+     *
+     * @param resourceName Name of the resource.
+     * @return Content type for the resource.
+     */
+    static String getContentTypeForFileExtension(String resourceName) {
+        int dot = resourceName.lastIndexOf('.');
+        String contentType = dot < 0 ? null : CONTENT_TYPES.get(resourceName.substring(dot + 1).toLowerCase());
+        return contentType != null ? contentType : "text/plain";
+    }
+
+    /** Checks whether a resource is text that is worth compressing. */
+    static boolean isCompressible(String resourceName) {
+        String contentType = getContentTypeForFileExtension(resourceName);
+        return contentType.startsWith("text/") || contentType.equals("application/json")
+                || contentType.equals("application/javascript") || contentType.equals("application/wasm")
+                || contentType.equals("image/svg+xml");
+    }
+
+    /** Serialized form of the handler, resolved to the instance of the deserializing application. */
+    private static final class SerializedForm implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private Object readResolve() {
+            return INSTANCE;
+        }
+    }
+
+    /** A resource served by this handler, from the classpath, by URL or a bundle of other resources. */
+    private static final class Target {
+        /** File name used for the content type. */
+        private final String name;
+        /** The class loader of the resource or {@link ResourceCache#URL_RESOURCES}. */
+        private final Object owner;
+        /** Path of the resource in the owner. */
+        private final String path;
+        private final URL url;
+        private final boolean compressible;
+        /** Files of a bundle and their public URLs, or null. */
+        private final List<Target> parts;
+        private final List<String> sources;
+        /** Name of the bundle the target is or belongs to, or null. */
+        private final String bundleName;
+        /** True for the source map of a bundle, false for the bundle itself. */
+        private final boolean sourceMap;
+        /** Precompressed siblings, e.g. <code>file.js.br</code>, resolved on first use. */
+        private volatile Map<String, URL> precompressed;
+        /** Size of the resource without reading it, -1 until resolved. */
+        private volatile long size = -1;
+
+        Target(Class<?> cls, String resourceName) {
+            this.name = resourceName;
+            this.owner = cls.getClassLoader();
+            this.path = ResourceCache.resolveName(cls, resourceName);
+            this.url = null;
+            this.compressible = isCompressible(resourceName);
+            this.parts = null;
+            this.sources = null;
+            this.bundleName = null;
+            this.sourceMap = false;
+        }
+
+        Target(String name, URL url) {
+            this.name = name;
+            this.owner = ResourceCache.URL_RESOURCES;
+            this.path = url.toExternalForm();
+            this.url = url;
+            this.compressible = isCompressible(name);
+            this.parts = null;
+            this.sources = null;
+            this.bundleName = null;
+            this.sourceMap = false;
+        }
+
+        Target(String name, String bundleName, String path, List<Target> parts, List<String> sources) {
+            this.name = name;
+            this.bundleName = bundleName;
+            this.owner = ResourceCache.URL_RESOURCES;
+            this.path = path;
+            this.url = null;
+            this.compressible = true;
+            this.parts = parts;
+            this.sources = sources;
+            this.sourceMap = !name.equals(bundleName);
+        }
+
+        String negotiate(String acceptEncoding) {
+            if (isLarge()) {
+                // Compressing would read the whole resource into memory
+                return null;
+            }
+            return JavaResourceHandler.negotiate(acceptEncoding, precompressed().containsKey("br"));
+        }
+
+        /** Checks whether the resource is served from the large resource store. */
+        boolean isLarge() {
+            if (parts != null || JSLoader.getLargeResourceStore() == null) {
+                return false;
+            }
+            long length = size;
+            if (length < 0) {
+                length = 0;
+                URL resourceUrl = resourceUrl();
+                if (resourceUrl != null) {
+                    try {
+                        length = Math.max(0, ClasspathResource.size(resourceUrl));
+                    } catch (IOException e) {
+                        // Served from memory, where the failure is reported
+                    }
+                }
+                size = length;
+            }
+            return length > JSLoader.getLargeResourceThreshold();
+        }
+
+        private URL resourceUrl() {
+            return url != null ? url
+                    : owner != null ? ((ClassLoader) owner).getResource(path)
+                    : ClassLoader.getSystemResource(path);
+        }
+
+        /** Path of the representation of the resource in the given encoding. */
+        String path(String encoding) {
+            return encoding == null ? path : path + "." + ENCODING_EXTENSIONS.get(encoding);
+        }
+
+        /** Gets the representation of the resource in the given encoding from the cache. */
+        ClasspathResource get(ResourceCache cache, String encoding) throws IOException {
+            return cache.get(owner, path(encoding), () -> load(cache, encoding));
+        }
+
+        private ClasspathResource load(ResourceCache cache, String encoding) throws IOException {
+            if (encoding == null && parts != null) {
+                return loadBundle(cache);
+            }
+            if (encoding == null) {
+                URL resourceUrl = resourceUrl();
+                if (resourceUrl == null) {
+                    return null;
+                }
+                Path store = JSLoader.getLargeResourceStore();
+                return store != null && isLarge() ? ClasspathResource.extract(resourceUrl, store)
+                        : ClasspathResource.load(resourceUrl);
+            }
+            URL sibling = precompressed().get(encoding);
+            if (sibling != null) {
+                return ClasspathResource.load(sibling);
+            }
+            // Compressed once, then served from the cache
+            ClasspathResource identity = get(cache, null);
+            return identity != null ? ClasspathResource.gzip(identity) : null;
+        }
+
+        private ClasspathResource loadBundle(ResourceCache cache) throws IOException {
+            Bundle bundle = build(cache);
+            if (bundle == null) {
+                return null;
+            }
+            long lastModified = 0;
+            for (Target part : parts) {
+                // Read by build, so at hand in the cache
+                ClasspathResource resource = part.get(cache, null);
+                lastModified = Math.max(lastModified, resource != null ? resource.getLastModified() : 0);
+            }
+            return ClasspathResource.of(sourceMap ? bundle.getSourceMap() : bundle.getContent(), lastModified);
+        }
+
+        /** Concatenates the parts, or returns null if they cannot be read or bundled. */
+        Bundle build(ResourceCache cache) throws IOException {
+            List<byte[]> contents = new ArrayList<>(parts.size());
+            for (Target part : parts) {
+                ClasspathResource resource = part.get(cache, null);
+                if (resource == null) {
+                    return null;
+                }
+                contents.add(resource.getContent() != null ? resource.getContent()
+                        : Files.readAllBytes(resource.getFile()));
+            }
+            return Bundle.concatenate(sources, contents, bundleName.endsWith(".css"), bundleName);
+        }
+
+        private Map<String, URL> precompressed() {
+            Map<String, URL> siblings = precompressed;
+            if (siblings == null) {
+                siblings = new HashMap<>();
+                if (url == null && parts == null) {
+                    for (Map.Entry<String, String> encoding : ENCODING_EXTENSIONS.entrySet()) {
+                        String siblingPath = path + "." + encoding.getValue();
+                        URL sibling = owner != null
+                                ? ((ClassLoader) owner).getResource(siblingPath)
+                                : ClassLoader.getSystemResource(siblingPath);
+                        if (sibling != null) {
+                            siblings.put(encoding.getKey(), sibling);
+                        }
+                    }
+                }
+                precompressed = siblings;
+            }
+            return siblings;
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package org.parttio.vaadinjsloader;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Descriptor of a library: its files and the libraries it depends on.
+ * <p>
+ * Loading a library with {@link JSLoader#loadLibrary(com.vaadin.flow.component.Component, Library)}
+ * loads its dependencies too. All files are fetched in parallel, but the
+ * scripts and modules of a library are evaluated only after those of its
+ * dependencies. A dependency shared by several libraries is loaded once.
+ * <pre>
+ * Library jquery = new Library("jquery", "3.7.1", JSLoader.CDNJS, "jquery.min.js");
+ * Library select2 = new Library("select2", "4.0.13", JSLoader.CDNJS, "js/select2.min.js", "css/select2.min.css")
+ *         .dependsOn(jquery);
+ * JSLoader.loadLibrary(ui, select2);
+ * </pre>
+ */
+public final class Library implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String name;
+    private final String version;
+    private final String urlPattern;
+    private final List<String> files;
+    private final List<Library> dependencies = new ArrayList<>();
+
+    /**
+     * Creates a library descriptor.
+     *
+     * @param name       the name of the library
+     * @param version    the version of the library, or null for
+     *                   <code>latest</code>
+     * @param urlPattern the URL pattern with the <code>{library}</code>,
+     *                   <code>{version}</code> and <code>{file}</code>
+     *                   placeholders
+     * @param files      the files of the library, in evaluation order
+     * @see JSLoader#loadFiles(com.vaadin.flow.component.Component, String, String, String, String...)
+     */
+    public Library(String name, String version, String urlPattern, String... files) {
+        assert name != null && !name.isEmpty() : "Library name cannot be null or empty";
+        assert urlPattern != null && !urlPattern.isEmpty() : "URL Pattern cannot be null or empty";
+        this.name = name;
+        this.version = version == null || version.isEmpty() ? "latest" : version;
+        this.urlPattern = urlPattern;
+        this.files = files != null ? List.of(files) : List.of();
+    }
+
+    /**
+     * Adds libraries this library depends on.
+     *
+     * @param libraries the dependencies
+     * @return this library, for chaining
+     */
+    public Library dependsOn(Library... libraries) {
+        Collections.addAll(dependencies, libraries);
+        return this;
+    }
+
+    /**
+     * @return the name of the library
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the version of the library
+     */
+    public String getVersion() {
+        return version;
+    }
+
+    /**
+     * @return the URL pattern of the files
+     */
+    public String getUrlPattern() {
+        return urlPattern;
+    }
+
+    /**
+     * @return the files of the library
+     */
+    public List<String> getFiles() {
+        return files;
+    }
+
+    /**
+     * @return the libraries this library depends on
+     */
+    public List<Library> getDependencies() {
+        return Collections.unmodifiableList(dependencies);
+    }
+
+    /**
+     * Resolves the dependency graph of a library.
+     *
+     * @param library the library to load
+     * @return the library and all its transitive dependencies, each once,
+     * dependencies before the libraries depending on them
+     * @throws IllegalArgumentException if the dependencies form a cycle
+     */
+    static List<Library> resolve(Library library) {
+        Set<Library> resolved = new LinkedHashSet<>();
+        visit(library, resolved, new HashSet<>());
+        return new ArrayList<>(resolved);
+    }
+
+    private static void visit(Library library, Set<Library> resolved, Set<Library> visiting) {
+        if (resolved.contains(library)) {
+            return;
+        }
+        if (!visiting.add(library)) {
+            throw new IllegalArgumentException("Dependency cycle at library " + library.name);
+        }
+        for (Library dependency : library.dependencies) {
+            visit(dependency, resolved, visiting);
+        }
+        visiting.remove(library);
+        resolved.add(library);
+    }
+
+    @Override
+    public String toString() {
+        return name + "@" + version;
+    }
+}
@@ -0,0 +1,218 @@
+package org.parttio.vaadinjsloader;
+
+import com.vaadin.flow.component.ComponentUtil;
+import com.vaadin.flow.component.UI;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Bookkeeping of the libraries loaded for a single UI.
+ * <p>
+ * The registry is stored as component data of the {@link UI} it belongs to,
+ * so its lifecycle is bound to the UI: it is cleared when the UI is detached
+ * and it becomes garbage together with the UI when the session is destroyed.
+ * <p>
+ * Each UI has its own registry and monitor, so the state is striped by UI
+ * and threads serving different UIs never contend. Within a UI, access is
+ * already serialized by the session lock, so the monitor is uncontended and
+ * a lock-free structure would only add allocation and complexity.
+ * <p>
+ * It is replicated with the session, e.g. when failing over to another node
+ * of a cluster. Libraries are kept in small parallel arrays, as a UI loads a
+ * handful of them, and serialized as their names and versions only. Names
+ * and versions are interned when read, so the UIs of a node share them.
+ * Libraries waiting for visibility are not serialized: their outcome is
+ * reported to the node that sent them, so they are loaded again if needed.
+ */
+final class LoadRegistry implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final String[] NONE = new String[0];
+
+    private transient String[] names = NONE;
+    private transient String[] versions = NONE;
+    /**
+     * Number of components waiting to become visible before the library is
+     * loaded, 0 for loaded libraries.
+     */
+    private transient int[] waiting = new int[0];
+    private transient int size;
+
+    private LoadRegistry() {
+    }
+
+    /**
+     * Gets the registry of the given UI, creating it if needed.
+     *
+     * @param ui the UI to get the registry for
+     * @return the registry of the UI, never null
+     */
+    static LoadRegistry get(UI ui) {
+        LoadRegistry registry = find(ui);
+        if (registry != null) {
+            return registry;
+        }
+        synchronized (ui) {
+            registry = find(ui);
+            if (registry == null) {
+                LoadRegistry created = new LoadRegistry();
+                ComponentUtil.setData(ui, LoadRegistry.class, created);
+                ui.addDetachListener(e -> created.clear());
+                registry = created;
+            }
+            return registry;
+        }
+    }
+
+    /**
+     * Gets the registry of the given UI if it has one.
+     *
+     * @param ui the UI to get the registry for
+     * @return the registry of the UI or null if nothing has been loaded
+     */
+    static LoadRegistry find(UI ui) {
+        return ComponentUtil.getData(ui, LoadRegistry.class);
+    }
+
+    synchronized String getVersion(String library) {
+        int index = indexOf(library);
+        return index >= 0 && waiting[index] == 0 ? versions[index] : null;
+    }
+
+    synchronized void setVersion(String library, String version) {
+        int previousSize = size;
+        put(library, version, false);
+        changed(previousSize);
+    }
+
+    /**
+     * Gets the version of a library waiting for its component to become
+     * visible.
+     *
+     * @param library the name of the library
+     * @return the version or null if the library is not pending
+     */
+    synchronized String getPendingVersion(String library) {
+        int index = indexOf(library);
+        return index >= 0 && waiting[index] > 0 ? versions[index] : null;
+    }
+
+    /**
+     * Adds a component waiting to become visible before the library is
+     * loaded, unless the library is loaded already.
+     *
+     * @param library the name of the library
+     * @param version the version of the library
+     */
+    synchronized void setPending(String library, String version) {
+        int previousSize = size;
+        put(library, version, true);
+        changed(previousSize);
+    }
+
+    /**
+     * Removes a component that no longer waits for the library, e.g. as it
+     * was detached. The library is removed with the last one.
+     *
+     * @param library the name of the library
+     */
+    synchronized void removePending(String library) {
+        int index = indexOf(library);
+        if (index >= 0 && waiting[index] > 0 && --waiting[index] == 0) {
+            remove(index);
+            changed(size + 1);
+        }
+    }
+
+    synchronized int size() {
+        return size;
+    }
+
+    synchronized void clear() {
+        int previousSize = size;
+        names = NONE;
+        versions = NONE;
+        waiting = new int[0];
+        size = 0;
+        changed(previousSize);
+    }
+
+    /** Reports a change of the size to the metrics. */
+    private void changed(int previousSize) {
+        if (size != previousSize) {
+            JSLoader.getMetrics().registryChanged(previousSize, size);
+        }
+    }
+
+    private int indexOf(String library) {
+        for (int i = 0; i < size; i++) {
+            if (names[i].equals(library)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void put(String library, String version, boolean isPending) {
+        int index = indexOf(library);
+        if (index < 0) {
+            if (size == names.length) {
+                int capacity = Math.max(4, size * 2);
+                names = Arrays.copyOf(names, capacity);
+                versions = Arrays.copyOf(versions, capacity);
+                waiting = Arrays.copyOf(waiting, capacity);
+            }
+            index = size++;
+            names[index] = library;
+        } else if (isPending && waiting[index] == 0) {
+            // Already loaded
+            return;
+        }
+        versions[index] = version;
+        waiting[index] = isPending ? waiting[index] + 1 : 0;
+    }
+
+    private void remove(int index) {
+        int moved = size - index - 1;
+        System.arraycopy(names, index + 1, names, index, moved);
+        System.arraycopy(versions, index + 1, versions, index, moved);
+        System.arraycopy(waiting, index + 1, waiting, index, moved);
+        size--;
+        names[size] = null;
+        versions[size] = null;
+        waiting[size] = 0;
+    }
+
+    private synchronized void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        int loaded = 0;
+        for (int i = 0; i < size; i++) {
+            loaded += waiting[i] > 0 ? 0 : 1;
+        }
+        out.writeInt(loaded);
+        for (int i = 0; i < size; i++) {
+            if (waiting[i] == 0) {
+                out.writeUTF(names[i]);
+                out.writeUTF(versions[i]);
+            }
+        }
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        size = in.readInt();
+        names = new String[size];
+        versions = new String[size];
+        waiting = new int[size];
+        for (int i = 0; i < size; i++) {
+            names[i] = in.readUTF().intern();
+            versions[i] = in.readUTF().intern();
+        }
+        changed(0);
+    }
+}
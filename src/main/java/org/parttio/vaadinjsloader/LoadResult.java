@@ -0,0 +1,171 @@
+package org.parttio.vaadinjsloader;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Outcome of loading a library in the browser, reported by the client-side
+ * loader once every file of the library has either loaded or failed.
+ *
+ * @see JSLoader#loadFiles(com.vaadin.flow.component.Component, String, String, String, String...)
+ */
+public final class LoadResult implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String library;
+    private final String version;
+    private final List<FileResult> files;
+
+    LoadResult(String library, String version, List<FileResult> files) {
+        this.library = library;
+        this.version = version;
+        this.files = Collections.unmodifiableList(files);
+    }
+
+    /**
+     * Gets the name of the loaded library.
+     *
+     * @return the library name
+     */
+    public String getLibrary() {
+        return library;
+    }
+
+    /**
+     * Gets the version of the loaded library.
+     *
+     * @return the library version
+     */
+    public String getVersion() {
+        return version;
+    }
+
+    /**
+     * Gets the outcome of each file of the library, in the order the files
+     * were given.
+     * <p>
+     * The list is empty if the outcome is not known, e.g. if the library was
+     * loaded before the session was serialized.
+     *
+     * @return the file results
+     */
+    public List<FileResult> getFiles() {
+        return files;
+    }
+
+    /**
+     * Checks whether no file of the library is known to have failed. Files
+     * whose outcome is unknown, see {@link FileResult#isUnknown()}, are not
+     * counted as failed.
+     *
+     * @return true if no file failed to load
+     */
+    public boolean isSuccessful() {
+        return files.stream().allMatch(file -> file.isLoaded() || file.isUnknown());
+    }
+
+    @Override
+    public String toString() {
+        return library + "@" + version + files;
+    }
+
+    /**
+     * Outcome and timing of a single file.
+     */
+    public static final class FileResult implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String url;
+        private final boolean loaded;
+        private final boolean unknown;
+        private final String error;
+        private final double startTime;
+        private final double duration;
+
+        FileResult(String url, boolean loaded, boolean unknown, String error, double startTime, double duration) {
+            this.url = url;
+            this.loaded = loaded;
+            this.unknown = unknown;
+            this.error = error;
+            this.startTime = startTime;
+            this.duration = duration;
+        }
+
+        /**
+         * Gets the URL of the file, as it was sent to the browser.
+         *
+         * @return the URL
+         */
+        public String getUrl() {
+            return url;
+        }
+
+        /**
+         * Checks whether the file was loaded and, for scripts and modules,
+         * evaluated.
+         *
+         * @return true if the file was loaded, false if it failed or the
+         * outcome is unknown
+         */
+        public boolean isLoaded() {
+            return loaded;
+        }
+
+        /**
+         * Checks whether the outcome of the file could not be observed.
+         * <p>
+         * This is the case for scripts and style sheets added with the
+         * <code>Page</code> API in {@link JSLoader.Batching#NONE}, unless the
+         * browser reports the HTTP status of the response through the
+         * Resource Timing API. It does not for cross-origin responses without
+         * a <code>Timing-Allow-Origin</code> header, in some browsers, or
+         * when the connection failed, so such a file may have failed without
+         * being reported. Use {@link JSLoader.Batching#LIBRARY} for a
+         * reliable outcome.
+         *
+         * @return true if it is not known whether the file loaded
+         */
+        public boolean isUnknown() {
+            return unknown;
+        }
+
+        /**
+         * Gets the error reported by the browser.
+         *
+         * @return the error message or null if the file was loaded or the
+         * outcome is unknown
+         */
+        public String getError() {
+            return error;
+        }
+
+        /**
+         * Gets the time the browser started loading the file.
+         *
+         * @return milliseconds since the page started loading, as given by
+         * <code>performance.now()</code>, or 0 if not known
+         */
+        public double getStartTime() {
+            return startTime;
+        }
+
+        /**
+         * Gets how long it took to load the file. For files added with the
+         * <code>Page</code> API this is the fetch time reported by the
+         * Resource Timing API.
+         *
+         * @return duration in milliseconds or 0 if not known
+         */
+        public double getDuration() {
+            return duration;
+        }
+
+        @Override
+        public String toString() {
+            return url + (loaded ? " " + duration + "ms" : unknown ? " outcome unknown" : " failed: " + error);
+        }
+    }
+}
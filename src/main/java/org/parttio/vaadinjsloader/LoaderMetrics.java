@@ -0,0 +1,136 @@
+package org.parttio.vaadinjsloader;
+
+/**
+ * Instrumentation hooks of the loader, e.g. for exporting counters, timers
+ * and gauges to a metrics library such as Micrometer.
+ * <p>
+ * An implementation is installed with {@link JSLoader#setMetrics(LoaderMetrics)}
+ * or, if none has been set, discovered through
+ * <code>META-INF/services/org.parttio.vaadinjsloader.LoaderMetrics</code>
+ * when the Vaadin service starts. All methods do nothing by default, so an
+ * implementation only overrides the events it records. They are called on
+ * the request threads and must be fast and thread safe.
+ * <p>
+ * The resource cache is not reported through events, its counters and size
+ * are read from {@link JSLoader#getResourceCache()}, e.g. as gauges.
+ * <p>
+ * {@link MicrometerLoaderMetrics} records the events with Micrometer, if it
+ * is on the classpath.
+ */
+public interface LoaderMetrics {
+
+    /** Metrics that record nothing, the default. */
+    LoaderMetrics NONE = new LoaderMetrics() {
+    };
+
+    /**
+     * Called when a library is requested for a UI.
+     *
+     * @param library the name of the library
+     * @param skipped true if the library was already loaded for the UI and
+     *                nothing is sent to the browser
+     */
+    default void loadRequested(String library, boolean skipped) {
+    }
+
+    /**
+     * Called when a library is sent to the browser, e.g. to start a tracing
+     * span that ends when the browser reports the outcome.
+     *
+     * @param library the name of the library
+     * @param version the version of the library
+     * @return the trace notified of the outcome of this load
+     */
+    default LoadTrace loadStarted(String library, String version) {
+        return LoadTrace.NONE;
+    }
+
+    /**
+     * Called when the browser has reported the outcome of loading a library.
+     * The result carries the timing of each file as measured by the browser,
+     * e.g. for a histogram of file load durations.
+     *
+     * @param result the files of the library and their timings
+     * @param nanos  the time from the request on the server to the report,
+     *               including the wait for visibility of lazy loads
+     */
+    default void libraryLoaded(LoadResult result, long nanos) {
+    }
+
+    /**
+     * Called when loading a library failed or was cancelled before the
+     * browser reported its outcome, e.g. because the UI was detached.
+     *
+     * @param library the name of the library
+     * @param error   the failure
+     */
+    default void libraryFailed(String library, Throwable error) {
+    }
+
+    /**
+     * Called when libraries are added to or removed from the registry of a
+     * UI, including when the registry is cleared as the UI is detached and
+     * when it is deserialized. The differences add up to the number of
+     * libraries in the registries of all UIs, e.g. for a gauge.
+     *
+     * @param previousSize the number of libraries in the registry before
+     * @param size         the number of libraries in the registry now
+     */
+    default void registryChanged(int previousSize, int size) {
+    }
+
+    /**
+     * Called when a resource under {@link JSLoader#PUBLIC_JAVA_RESOURCE_PATH}
+     * has been served.
+     *
+     * The path of a fingerprinted URL includes the hash of the content, so
+     * tag metrics by its library or file type rather than by the path.
+     *
+     * @param path   the requested path
+     * @param status the HTTP status, e.g. <code>200</code>, <code>304</code>
+     *               or <code>404</code>
+     * @param bytes  the number of body bytes sent
+     * @param nanos  the time taken to serve the request
+     */
+    default void resourceServed(String path, int status, long bytes, long nanos) {
+    }
+
+    /**
+     * Called when a path under {@link JSLoader#PUBLIC_JAVA_RESOURCE_PATH} is
+     * not a registered resource. The request is left to the other handlers,
+     * which usually respond with <code>404</code>.
+     *
+     * @param path the requested path, any path a client sends
+     */
+    default void resourceNotFound(String path) {
+    }
+
+    /**
+     * Outcome of a single load, e.g. a tracing span.
+     *
+     * @see #loadStarted(String, String)
+     */
+    interface LoadTrace {
+
+        /** Trace that records nothing, the default. */
+        LoadTrace NONE = new LoadTrace() {
+        };
+
+        /**
+         * Called when the browser has reported the outcome of the load.
+         *
+         * @param result the files of the library and their timings
+         */
+        default void loaded(LoadResult result) {
+        }
+
+        /**
+         * Called when the load failed or was cancelled before the browser
+         * reported its outcome.
+         *
+         * @param error the failure
+         */
+        default void failed(Throwable error) {
+        }
+    }
+}
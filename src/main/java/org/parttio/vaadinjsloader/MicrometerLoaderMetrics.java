@@ -0,0 +1,197 @@
+package org.parttio.vaadinjsloader;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationRegistry;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Records the events of the loader with Micrometer, which is an optional
+ * dependency of the add-on.
+ * <pre>
+ * JSLoader.setMetrics(new MicrometerLoaderMetrics(meterRegistry, observationRegistry));
+ * </pre>
+ * It registers these meters:
+ * <ul>
+ * <li><code>jsloader.loads</code>: loads requested, by <code>library</code>
+ * and whether they were <code>skipped</code> as already loaded</li>
+ * <li><code>jsloader.library.load</code>: time from the request to the
+ * report of the browser, by <code>library</code> and <code>outcome</code></li>
+ * <li><code>jsloader.library.failures</code>: loads failed or cancelled, by
+ * <code>library</code> and <code>error</code> type</li>
+ * <li><code>jsloader.file.load</code>: histogram of the file load times
+ * measured by the browser, by <code>library</code>, file <code>type</code>
+ * and <code>outcome</code></li>
+ * <li><code>jsloader.registry.libraries</code>: libraries loaded or pending
+ * in the UIs of this node</li>
+ * <li><code>jsloader.resource.requests</code> and
+ * <code>jsloader.resource.bytes</code>: served classpath resources, by
+ * <code>library</code>, file <code>type</code> and <code>status</code></li>
+ * <li><code>jsloader.resource.not.found</code>: requests of resources that
+ * are not registered</li>
+ * <li><code>jsloader.cache.size</code>, <code>jsloader.cache.hits</code> and
+ * <code>jsloader.cache.misses</code>: the {@link ResourceCache}</li>
+ * </ul>
+ * Each load is also observed as <code>jsloader.load</code> with the
+ * observation registry, e.g. as a tracing span.
+ * <p>
+ * The no-argument constructor uses the global registry, so this class can
+ * be listed in <code>META-INF/services/org.parttio.vaadinjsloader.LoaderMetrics</code>.
+ */
+public class MicrometerLoaderMetrics implements LoaderMetrics {
+
+    private static final String NONE = "none";
+
+    private final MeterRegistry registry;
+    private final ObservationRegistry observations;
+    private final AtomicLong libraries = new AtomicLong();
+
+    /**
+     * Records to {@link Metrics#globalRegistry} without observations.
+     */
+    public MicrometerLoaderMetrics() {
+        this(Metrics.globalRegistry);
+    }
+
+    /**
+     * Records to the given registry without observations.
+     *
+     * @param registry the registry of the meters
+     */
+    public MicrometerLoaderMetrics(MeterRegistry registry) {
+        this(registry, ObservationRegistry.NOOP);
+    }
+
+    /**
+     * Records to the given registries.
+     *
+     * @param registry     the registry of the meters
+     * @param observations the registry of the load observations
+     */
+    public MicrometerLoaderMetrics(MeterRegistry registry, ObservationRegistry observations) {
+        assert registry != null : "Registry cannot be null";
+        assert observations != null : "Observation registry cannot be null";
+        this.registry = registry;
+        this.observations = observations;
+        Gauge.builder("jsloader.registry.libraries", libraries, AtomicLong::get).register(registry);
+        // Read from the current cache, it can be replaced
+        Gauge.builder("jsloader.cache.size", () -> JSLoader.getResourceCache().getSize())
+                .baseUnit("bytes").register(registry);
+        FunctionCounter.builder("jsloader.cache.hits", this, m -> JSLoader.getResourceCache().getHitCount())
+                .register(registry);
+        FunctionCounter.builder("jsloader.cache.misses", this, m -> JSLoader.getResourceCache().getMissCount())
+                .register(registry);
+    }
+
+    @Override
+    public void loadRequested(String library, boolean skipped) {
+        registry.counter("jsloader.loads", "library", library, "skipped", String.valueOf(skipped)).increment();
+    }
+
+    @Override
+    public LoadTrace loadStarted(String library, String version) {
+        if (observations.isNoop()) {
+            return LoadTrace.NONE;
+        }
+        Observation observation = Observation.createNotStarted("jsloader.load", observations)
+                .lowCardinalityKeyValue("library", library)
+                .highCardinalityKeyValue("version", version)
+                .start();
+        return new LoadTrace() {
+            @Override
+            public void loaded(LoadResult result) {
+                observation.lowCardinalityKeyValue("outcome", outcome(result)).stop();
+            }
+
+            @Override
+            public void failed(Throwable error) {
+                observation.error(error);
+                observation.stop();
+            }
+        };
+    }
+
+    @Override
+    public void libraryLoaded(LoadResult result, long nanos) {
+        Timer.builder("jsloader.library.load")
+                .tags("library", result.getLibrary(), "outcome", outcome(result))
+                .register(registry)
+                .record(nanos, TimeUnit.NANOSECONDS);
+        for (LoadResult.FileResult file : result.getFiles()) {
+            Timer.builder("jsloader.file.load")
+                    .tags("library", result.getLibrary(), "type", typeOf(file.getUrl()),
+                            "outcome", file.isLoaded() ? "loaded" : file.isUnknown() ? "unknown" : "failed")
+                    .publishPercentileHistogram()
+                    .register(registry)
+                    .record((long) (file.getDuration() * 1_000_000), TimeUnit.NANOSECONDS);
+        }
+    }
+
+    @Override
+    public void libraryFailed(String library, Throwable error) {
+        registry.counter("jsloader.library.failures", "library", library,
+                "error", error.getClass().getSimpleName()).increment();
+    }
+
+    @Override
+    public void registryChanged(int previousSize, int size) {
+        libraries.addAndGet(size - previousSize);
+    }
+
+    @Override
+    public void resourceServed(String path, int status, long bytes, long nanos) {
+        String library = libraryOf(path);
+        String type = typeOf(path);
+        Timer.builder("jsloader.resource.requests")
+                .tags("library", library, "type", type, "status", String.valueOf(status))
+                .register(registry)
+                .record(nanos, TimeUnit.NANOSECONDS);
+        DistributionSummary.builder("jsloader.resource.bytes")
+                .tags("library", library, "type", type)
+                .baseUnit("bytes")
+                .register(registry)
+                .record(bytes);
+    }
+
+    @Override
+    public void resourceNotFound(String path) {
+        // Not tagged by the path, which is whatever a client sends
+        Counter.builder("jsloader.resource.not.found").register(registry).increment();
+    }
+
+    private static String outcome(LoadResult result) {
+        return result.isSuccessful() ? "success" : "failure";
+    }
+
+    /**
+     * Gets the library of a served path, the first segment under
+     * {@link JSLoader#PUBLIC_JAVA_RESOURCE_PATH}.
+     */
+    static String libraryOf(String path) {
+        if (path == null || !path.startsWith(JSLoader.PUBLIC_JAVA_RESOURCE_PATH)) {
+            return NONE;
+        }
+        int start = JSLoader.PUBLIC_JAVA_RESOURCE_PATH.length();
+        int end = path.indexOf('/', start);
+        return end > start ? path.substring(start, end) : NONE;
+    }
+
+    /** Gets the file extension of a URL, the same for fingerprinted URLs. */
+    static String typeOf(String url) {
+        if (url == null) {
+            return NONE;
+        }
+        int query = url.indexOf('?');
+        String path = query < 0 ? url : url.substring(0, query);
+        int dot = path.lastIndexOf('.');
+        return dot > path.lastIndexOf('/') ? path.substring(dot + 1).toLowerCase() : NONE;
+    }
+}
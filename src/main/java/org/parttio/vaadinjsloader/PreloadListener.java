@@ -0,0 +1,118 @@
+package org.parttio.vaadinjsloader;
+
+import com.vaadin.flow.component.Component;
+import com.vaadin.flow.router.RouteConfiguration;
+import com.vaadin.flow.server.VaadinRequest;
+import com.vaadin.flow.server.VaadinService;
+import com.vaadin.flow.server.communication.IndexHtmlRequestListener;
+import com.vaadin.flow.server.communication.IndexHtmlResponse;
+import org.jsoup.nodes.Element;
+
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Function;
+
+/**
+ * Adds <code>&lt;link rel="preload"&gt;</code> and
+ * <code>&lt;link rel="modulepreload"&gt;</code> tags for the libraries
+ * declared with {@link JSLoader#preloadFiles(String, String, String, String...)}
+ * to the initial page, so the browser fetches them in parallel with the
+ * Vaadin bootstrap.
+ * <p>
+ * The tags use the same URLs as the later load calls, so the browser reuses
+ * the preloaded responses. A single instance serves the whole application and
+ * is installed by {@link JSLoaderServiceInitListener}.
+ */
+final class PreloadListener implements IndexHtmlRequestListener {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final PreloadListener INSTANCE = new PreloadListener();
+
+    private final List<Preload> preloads = new CopyOnWriteArrayList<>();
+
+    private PreloadListener() {
+    }
+
+    static PreloadListener get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Declares the files of a library to preload.
+     *
+     * @param route the route target to preload for or null for all routes
+     * @param urls  function building the URLs of the files, given the
+     *              service or null, so that they match the URLs loaded later
+     */
+    void add(Class<? extends Component> route, Function<VaadinService, List<String>> urls) {
+        preloads.add(new Preload(route, urls));
+    }
+
+    @Override
+    public void modifyIndexHtmlResponse(IndexHtmlResponse response) {
+        if (preloads.isEmpty()) {
+            return;
+        }
+        VaadinRequest request = response.getVaadinRequest();
+        VaadinService service = request.getService();
+        Class<? extends Component> target = null;
+        if (preloads.stream().anyMatch(p -> p.route != null)) {
+            target = findRoute(request.getPathInfo()).orElse(null);
+        }
+
+        Set<String> urls = new LinkedHashSet<>();
+        for (Preload preload : preloads) {
+            if (preload.route == null || target != null && preload.route.isAssignableFrom(target)) {
+                urls.addAll(preload.urls.apply(service));
+            }
+        }
+        Element head = response.getDocument().head();
+        for (String url : urls) {
+            head.appendChild(createLink(url));
+        }
+    }
+
+    /**
+     * Creates the preload tag for a URL.
+     *
+     * @param url the URL to preload
+     * @return <code>modulepreload</code> for ES modules, otherwise
+     * <code>preload</code> as a script or a style sheet, with the integrity
+     * of the URL if in the integrity manifest
+     */
+    static Element createLink(String url) {
+        Element link = new Element("link").attr("href", url);
+        String integrity = JSLoader.getIntegrity(url);
+        if (integrity != null) {
+            // Reused by the later load only if the attributes match
+            link.attr("integrity", integrity).attr("crossorigin", "anonymous");
+        }
+        String path = url.toLowerCase();
+        if (path.endsWith(".mjs")) {
+            return link.attr("rel", "modulepreload");
+        }
+        return link.attr("rel", "preload").attr("as", path.endsWith(".css") ? "style" : "script");
+    }
+
+    private static Optional<Class<? extends Component>> findRoute(String pathInfo) {
+        if (VaadinService.getCurrent() == null) {
+            return Optional.empty();
+        }
+        String path = pathInfo == null ? "" : pathInfo.replaceFirst("^/+", "");
+        return RouteConfiguration.forApplicationScope().getRoute(path);
+    }
+
+    private static final class Preload {
+        private final Class<? extends Component> route;
+        private final Function<VaadinService, List<String>> urls;
+
+        private Preload(Class<? extends Component> route, Function<VaadinService, List<String>> urls) {
+            this.route = route;
+            this.urls = urls;
+        }
+    }
+}
@@ -0,0 +1,258 @@
+package org.parttio.vaadinjsloader;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Size-bounded in-memory cache for the classpath resources served under
+ * {@link JSLoader#PUBLIC_JAVA_RESOURCE_PATH}.
+ * <p>
+ * Resources are cached as byte arrays keyed by class loader and resource path.
+ * When the total size exceeds the configured maximum, the least recently used
+ * resources are evicted. Resources larger than the maximum are never cached.
+ * Large resources extracted to files only take their validators, so they do
+ * not count towards the size.
+ * The HTTP validators of a resource are kept after its content is evicted,
+ * so that conditional requests can be answered without reading it again.
+ *
+ * @see JSLoader#setResourceCacheSize(long)
+ * @see JSLoader#getResourceCache()
+ */
+public final class ResourceCache {
+
+    /** Default maximum size of the cache in bytes. */
+    public static final long DEFAULT_MAX_SIZE = 16 * 1024 * 1024;
+
+    /** Owner of the keys of resources loaded by URL instead of a class loader. */
+    static final Object URL_RESOURCES = new Object();
+
+    private final LinkedHashMap<Key, ClasspathResource> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<Key, ClasspathResource> validators = new ConcurrentHashMap<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private long maxSize;
+    private long size;
+
+    ResourceCache(long maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Gets a resource, loading and caching it if needed.
+     *
+     * @param cls          the class to resolve the resource name against
+     * @param resourceName the resource name as used with {@link Class#getResourceAsStream(String)}
+     * @return the resource or null if it does not exist
+     * @throws IOException if reading the resource fails
+     */
+    ClasspathResource get(Class<?> cls, String resourceName) throws IOException {
+        return get(cls.getClassLoader(), resolveName(cls, resourceName));
+    }
+
+    /**
+     * Gets a resource, loading and caching it if needed.
+     *
+     * @param classLoader the class loader to load the resource with, null for the system class loader
+     * @param path        the absolute resource path without a leading slash
+     * @return the resource or null if it does not exist
+     * @throws IOException if reading the resource fails
+     */
+    ClasspathResource get(ClassLoader classLoader, String path) throws IOException {
+        return get(classLoader, path, () -> {
+            URL url = classLoader != null
+                    ? classLoader.getResource(path)
+                    : ClassLoader.getSystemResource(path);
+            return url != null ? ClasspathResource.load(url) : null;
+        });
+    }
+
+    /**
+     * Gets a resource by URL, e.g. a web application resource, loading and
+     * caching it if needed.
+     *
+     * @param url the URL of the resource
+     * @return the resource
+     * @throws IOException if reading the resource fails
+     */
+    ClasspathResource get(URL url) throws IOException {
+        return get(URL_RESOURCES, url.toExternalForm(), () -> ClasspathResource.load(url));
+    }
+
+    /**
+     * Gets a resource or a derived representation of it, e.g. a compressed
+     * one, loading and caching it if needed.
+     *
+     * @param owner  the class loader of the resource or {@link #URL_RESOURCES}
+     * @param path   the path or URL identifying the resource within the owner
+     * @param loader loads the resource on a cache miss
+     * @return the resource or null if the loader returned null
+     * @throws IOException if reading the resource fails
+     */
+    ClasspathResource get(Object owner, String path, Loader loader) throws IOException {
+        Key key = new Key(owner, path);
+        synchronized (this) {
+            ClasspathResource resource = entries.get(key);
+            if (resource != null) {
+                hits.increment();
+                return resource;
+            }
+        }
+        misses.increment();
+
+        // Load outside the lock, concurrent misses of the same resource are harmless
+        ClasspathResource resource = loader.load();
+        if (resource != null) {
+            validators.put(key, resource.validators());
+            put(key, resource);
+        }
+        return resource;
+    }
+
+    /**
+     * Gets the validators of a resource that has been loaded before.
+     *
+     * @param cls          the class to resolve the resource name against
+     * @param resourceName the resource name as used with {@link Class#getResourceAsStream(String)}
+     * @return the resource without content or null if it has not been loaded
+     */
+    ClasspathResource getValidators(Class<?> cls, String resourceName) {
+        return getValidators(cls.getClassLoader(), resolveName(cls, resourceName));
+    }
+
+    /**
+     * Gets the validators of a resource that has been loaded by URL before.
+     *
+     * @param url the URL of the resource
+     * @return the resource without content or null if it has not been loaded
+     */
+    ClasspathResource getValidators(URL url) {
+        return getValidators(URL_RESOURCES, url.toExternalForm());
+    }
+
+    /**
+     * Gets the validators of a resource that has been loaded before.
+     *
+     * @param owner the class loader of the resource or {@link #URL_RESOURCES}
+     * @param path  the path or URL identifying the resource within the owner
+     * @return the resource without content or null if it has not been loaded
+     */
+    ClasspathResource getValidators(Object owner, String path) {
+        return validators.get(new Key(owner, path));
+    }
+
+    private synchronized void put(Key key, ClasspathResource resource) {
+        long length = weight(resource);
+        if (length > maxSize) {
+            return;
+        }
+        ClasspathResource previous = entries.put(key, resource);
+        size += length - (previous != null ? weight(previous) : 0);
+        evict();
+    }
+
+    private void evict() {
+        Iterator<ClasspathResource> it = entries.values().iterator();
+        while (size > maxSize && it.hasNext()) {
+            size -= weight(it.next());
+            it.remove();
+        }
+    }
+
+    /** Heap taken by a resource, nothing for a resource whose content is in a file. */
+    private static long weight(ClasspathResource resource) {
+        return resource.getContent() != null ? resource.getContent().length : 0;
+    }
+
+    /**
+     * Gets the number of requests served from the cache.
+     *
+     * @return the number of cache hits
+     */
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    /**
+     * Gets the number of requests that had to load the resource.
+     *
+     * @return the number of cache misses
+     */
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /**
+     * Gets the total size of the cached resources.
+     *
+     * @return the size of the cache in bytes
+     */
+    public synchronized long getSize() {
+        return size;
+    }
+
+    /**
+     * Gets the maximum size of the cache.
+     *
+     * @return the maximum size of the cache in bytes
+     */
+    public synchronized long getMaxSize() {
+        return maxSize;
+    }
+
+    synchronized void setMaxSize(long maxSize) {
+        this.maxSize = maxSize;
+        evict();
+    }
+
+    /** Removes all resources from the cache. */
+    public synchronized void clear() {
+        entries.clear();
+        validators.clear();
+        size = 0;
+    }
+
+    /** Resolves a resource name the same way as {@link Class#getResourceAsStream(String)}. */
+    static String resolveName(Class<?> cls, String name) {
+        if (name.startsWith("/")) {
+            return name.substring(1);
+        }
+        String packageName = cls.getPackageName();
+        if (packageName.isEmpty()) {
+            return name;
+        }
+        return packageName.replace('.', '/') + "/" + name;
+    }
+
+    /** Loads a resource on a cache miss. */
+    interface Loader {
+        ClasspathResource load() throws IOException;
+    }
+
+    private static final class Key {
+        /** The class loader of the resource or {@link #URL_RESOURCES}. */
+        private final Object owner;
+        private final String path;
+
+        Key(Object owner, String path) {
+            this.owner = owner;
+            this.path = path;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) return false;
+            Key other = (Key) o;
+            return owner == other.owner && path.equals(other.path);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * System.identityHashCode(owner) + path.hashCode();
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package org.parttio.vaadinjsloader;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Classpath resources resolved by {@link JSLoader#indexJavaResources()},
+ * with their size, content hash and content type.
+ */
+public final class ResourceIndex {
+
+    private final Map<String, Entry> entries = new LinkedHashMap<>();
+
+    ResourceIndex(List<Entry> entries) {
+        entries.forEach(entry -> this.entries.put(entry.url, entry));
+    }
+
+    /**
+     * Gets the resources of the index.
+     *
+     * @return the resources in the order they were registered
+     */
+    public List<Entry> getEntries() {
+        return List.copyOf(entries.values());
+    }
+
+    /**
+     * Gets a resource by URL.
+     *
+     * @param url the URL under {@link JSLoader#PUBLIC_JAVA_RESOURCE_PATH}
+     * @return the resource or null if not in the index
+     */
+    public Entry get(String url) {
+        return entries.get(url);
+    }
+
+    /**
+     * Gets the total size of the resources.
+     *
+     * @return the size in bytes
+     */
+    public long getTotalSize() {
+        return entries.values().stream().mapToLong(Entry::getSize).sum();
+    }
+
+    @Override
+    public String toString() {
+        return entries.size() + " resources, " + getTotalSize() + " bytes";
+    }
+
+    /** A resolved classpath resource. */
+    public static final class Entry {
+        private final String url;
+        private final long size;
+        private final String hash;
+        private final String contentType;
+        private final String integrity;
+
+        Entry(String url, long size, String hash, String contentType, String integrity) {
+            this.url = url;
+            this.size = size;
+            this.hash = hash;
+            this.contentType = contentType;
+            this.integrity = integrity;
+        }
+
+        /**
+         * @return the URL the resource is served at
+         */
+        public String getUrl() {
+            return url;
+        }
+
+        /**
+         * @return the size of the resource in bytes
+         */
+        public long getSize() {
+            return size;
+        }
+
+        /**
+         * @return the URL-safe Base64 SHA-384 hash of the content
+         */
+        public String getHash() {
+            return hash;
+        }
+
+        /**
+         * @return the content type the resource is served with
+         */
+        public String getContentType() {
+            return contentType;
+        }
+
+        /**
+         * @return the Subresource Integrity metadata of the content, e.g. for
+         * an {@link IntegrityManifest}
+         */
+        public String getIntegrity() {
+            return integrity;
+        }
+
+        @Override
+        public String toString() {
+            return url + " (" + contentType + ", " + size + " bytes)";
+        }
+    }
+}
@@ -0,0 +1,247 @@
+package org.parttio.vaadinjsloader;
+
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * URL pattern parsed into literal text and placeholders, e.g.
+ * {@link JSLoader#CDNJS} or {@link JSLoader#URL_PATTERN_UNPKGCOM_FILES}.
+ * <p>
+ * A placeholder is a name in braces, e.g. <code>{library}</code>. Besides
+ * <code>{library}</code>, <code>{version}</code> and <code>{file}</code>
+ * used by the load methods, any name can be used and given a value with
+ * {@link #expand(Map)}, e.g. <code>{min}</code> or <code>{ext}</code>.
+ * Values are inserted as is, placeholder text in a value is not replaced.
+ * A placeholder written as <code>{file:encoded}</code> has the characters of
+ * its value that are not allowed in a URL path percent-encoded, keeping
+ * <code>/</code>. Placeholders without a value are left in the URL.
+ * <pre>
+ * UrlTemplate template = UrlTemplate.compile("https://cdn.example.com/{library}@{version}/{file}{min}.js");
+ * String url = template.expand(Map.of("library", "chart", "version", "4.4.0", "file", "chart", "min", ".min"));
+ * </pre>
+ */
+public final class UrlTemplate implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final int CACHE_SIZE = 256;
+    private static final Map<String, UrlTemplate> cache = new ConcurrentHashMap<>();
+
+    private static final String ENCODED = ":encoded";
+    private static final byte OTHER = 0;
+    private static final byte LIBRARY = 1;
+    private static final byte VERSION = 2;
+    private static final byte FILE = 3;
+
+    private final String pattern;
+    /** Literal text before each placeholder and after the last one, one more than the placeholders. */
+    private final String[] literals;
+    private final String[] names;
+    private final byte[] kinds;
+    private final boolean[] encoded;
+    private final int literalLength;
+
+    private UrlTemplate(String pattern, List<String> literals, List<String> names) {
+        this.pattern = pattern;
+        this.literals = literals.toArray(new String[0]);
+        this.names = new String[names.size()];
+        this.kinds = new byte[names.size()];
+        this.encoded = new boolean[names.size()];
+        for (int i = 0; i < this.names.length; i++) {
+            String name = names.get(i);
+            encoded[i] = name.endsWith(ENCODED);
+            if (encoded[i]) {
+                name = name.substring(0, name.length() - ENCODED.length());
+            }
+            this.names[i] = name;
+            kinds[i] = name.equals("library") ? LIBRARY
+                    : name.equals("version") ? VERSION
+                    : name.equals("file") ? FILE
+                    : OTHER;
+        }
+        int length = 0;
+        for (String literal : this.literals) {
+            length += literal.length();
+        }
+        this.literalLength = length;
+    }
+
+    /**
+     * Gets the compiled form of a pattern, parsing it on first use.
+     *
+     * @param pattern the URL pattern with placeholders
+     * @return the template
+     */
+    public static UrlTemplate compile(String pattern) {
+        assert pattern != null : "URL Pattern cannot be null";
+        UrlTemplate template = cache.get(pattern);
+        if (template == null) {
+            template = parse(pattern);
+            // Patterns are usually constants, a bound keeps generated ones from piling up
+            if (cache.size() < CACHE_SIZE) {
+                cache.put(pattern, template);
+            }
+        }
+        return template;
+    }
+
+    private static UrlTemplate parse(String pattern) {
+        List<String> literals = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+        StringBuilder literal = new StringBuilder();
+        int i = 0;
+        while (i < pattern.length()) {
+            int open = pattern.indexOf('{', i);
+            int close = open < 0 ? -1 : pattern.indexOf('}', open);
+            if (close < 0) {
+                literal.append(pattern, i, pattern.length());
+                break;
+            }
+            String name = pattern.substring(open + 1, close);
+            literal.append(pattern, i, open);
+            if (isName(name)) {
+                literals.add(literal.toString());
+                literal.setLength(0);
+                names.add(name);
+            } else {
+                // Not a placeholder, e.g. a brace in a query
+                literal.append('{').append(name).append('}');
+            }
+            i = close + 1;
+        }
+        literals.add(literal.toString());
+        return new UrlTemplate(pattern, literals, names);
+    }
+
+    private static boolean isName(String name) {
+        String base = name.endsWith(ENCODED) ? name.substring(0, name.length() - ENCODED.length()) : name;
+        if (base.isEmpty() || !Character.isLetter(base.charAt(0))) {
+            return false;
+        }
+        for (int i = 1; i < base.length(); i++) {
+            char c = base.charAt(i);
+            if (!Character.isLetterOrDigit(c) && c != '_' && c != '-') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Builds the URL of a file of a library.
+     *
+     * @param library the value of <code>{library}</code>
+     * @param version the value of <code>{version}</code>
+     * @param file    the value of <code>{file}</code> or null
+     * @return the URL, with other placeholders left as is
+     */
+    public String expand(String library, String version, String file) {
+        return expand(library, version, file, null);
+    }
+
+    /**
+     * Builds a URL with the given values of the placeholders.
+     *
+     * @param values placeholder name -> value
+     * @return the URL, with placeholders without a value left as is
+     */
+    public String expand(Map<String, String> values) {
+        return expand(values.get("library"), values.get("version"), values.get("file"), values);
+    }
+
+    private String expand(String library, String version, String file, Map<String, String> values) {
+        if (names.length == 0) {
+            return literals[0];
+        }
+        String[] resolved = new String[names.length];
+        int length = literalLength;
+        for (int i = 0; i < names.length; i++) {
+            String value;
+            switch (kinds[i]) {
+                case LIBRARY:
+                    value = library;
+                    break;
+                case VERSION:
+                    value = version;
+                    break;
+                case FILE:
+                    value = file;
+                    break;
+                default:
+                    value = values != null ? values.get(names[i]) : null;
+            }
+            if (value != null && encoded[i]) {
+                value = encode(value);
+            }
+            resolved[i] = value;
+            length += value != null ? value.length() : names[i].length() + (encoded[i] ? ENCODED.length() : 0) + 2;
+        }
+        StringBuilder url = new StringBuilder(length);
+        for (int i = 0; i < names.length; i++) {
+            url.append(literals[i]);
+            if (resolved[i] != null) {
+                url.append(resolved[i]);
+            } else {
+                url.append('{').append(names[i]).append(encoded[i] ? ENCODED : "").append('}');
+            }
+        }
+        return url.append(literals[names.length]).toString();
+    }
+
+    /**
+     * Percent-encodes the characters not allowed in a URL path, keeping
+     * <code>/</code> between segments.
+     *
+     * @param value the value to encode
+     * @return the encoded value
+     */
+    static String encode(String value) {
+        StringBuilder encoded = null;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80 && isPathChar(c)) {
+                if (encoded != null) {
+                    encoded.append(c);
+                }
+                continue;
+            }
+            if (encoded == null) {
+                encoded = new StringBuilder(value.length() + 16).append(value, 0, i);
+            }
+            // Encode the whole code point, possibly a surrogate pair
+            int end = Character.isHighSurrogate(c) && i + 1 < value.length() ? i + 2 : i + 1;
+            for (byte b : value.substring(i, end).getBytes(StandardCharsets.UTF_8)) {
+                encoded.append('%').append(Character.toUpperCase(Character.forDigit((b >> 4) & 0xF, 16)))
+                        .append(Character.toUpperCase(Character.forDigit(b & 0xF, 16)));
+            }
+            i = end - 1;
+        }
+        return encoded != null ? encoded.toString() : value;
+    }
+
+    /** Unreserved characters, sub-delimiters, <code>:</code>, <code>@</code> and <code>/</code>. */
+    private static boolean isPathChar(char c) {
+        return c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9'
+                || "-._~!$&'()*+,;=:@/".indexOf(c) >= 0;
+    }
+
+    /**
+     * Gets the names of the placeholders of the template.
+     *
+     * @return the names, each once, in order of appearance
+     */
+    public Set<String> getPlaceholders() {
+        return new LinkedHashSet<>(List.of(names));
+    }
+
+    @Override
+    public String toString() {
+        return pattern;
+    }
+}
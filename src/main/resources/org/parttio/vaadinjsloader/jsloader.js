@@ -0,0 +1,283 @@
+// Client-side part of JSLoader, installed once per page as window.Vaadin.jsloader.
+window.Vaadin = window.Vaadin || {};
+window.Vaadin.jsloader = window.Vaadin.jsloader || (function () {
+    // URL -> promise of the timing of the file being loaded, so that each file is added only once
+    const files = {};
+    // Library name -> promise of the results of its files
+    const libraries = {};
+    // Library name -> resolve function of a whenLoaded call made before the library
+    const waiting = {};
+    // Key of a load waiting for its element to become visible -> function cancelling it
+    const lazy = {};
+    // URL -> promise of a module preload, settled once the module has been fetched and checked
+    const preloads = {};
+
+    function timed(loading) {
+        const startTime = performance.now();
+        return loading.then(() => ({startTime, duration: performance.now() - startTime}));
+    }
+
+    function add(url, create) {
+        if (!files[url]) {
+            files[url] = timed(new Promise((resolve, reject) => {
+                const element = create();
+                element.onload = resolve;
+                element.onerror = () => reject(new Error('Failed to load ' + url));
+                document.head.appendChild(element);
+            }));
+        }
+        return files[url];
+    }
+
+    function withIntegrity(element, integrity) {
+        if (integrity) {
+            // Checked by the browser, which needs a CORS response for that
+            element.integrity = integrity;
+            element.crossOrigin = 'anonymous';
+        }
+        return element;
+    }
+
+    function loadScript(url, integrity) {
+        return add(url, () => {
+            const script = withIntegrity(document.createElement('script'), integrity);
+            script.src = url;
+            // Fetched in parallel, evaluated in insertion order
+            script.async = false;
+            return script;
+        });
+    }
+
+    function loadStyleSheet(url, integrity) {
+        return add(url, () => {
+            const link = withIntegrity(document.createElement('link'), integrity);
+            link.rel = 'stylesheet';
+            link.href = url;
+            return link;
+        });
+    }
+
+    function importModule(library, url, integrity) {
+        // Imported exactly once, also when used by several libraries or loads
+        if (!files[url]) {
+            // import() takes no integrity: the verified preload puts the module in the module map, import() then reuses it
+            const verified = integrity ? preloadModule(url, integrity) : Promise.resolve();
+            files[url] = timed(verified.then(() => import(new URL(url, document.baseURI).href)).then(module => {
+                // Publish the exports as a global named after the library
+                const exports = globalThis[library] = globalThis[library] || {};
+                Object.keys(module).forEach(key => exports[key] = module[key]);
+            }));
+        }
+        return files[url];
+    }
+
+    function added(url) {
+        // Added by the server through the Page API, which reports no outcome, only the fetch can be observed
+        if (!files[url]) {
+            const entry = performance.getEntriesByName(new URL(url, document.baseURI).href)[0];
+            // 0 for cross-origin responses without Timing-Allow-Origin, missing in some browsers and without an entry
+            const status = entry && entry.responseStatus;
+            files[url] = status >= 400
+                ? Promise.reject(new Error('Failed to load ' + url + ': ' + status))
+                : Promise.resolve({
+                    startTime: entry ? entry.startTime : 0,
+                    duration: entry ? entry.duration : 0,
+                    unknown: !(status > 0)
+                });
+        }
+        return files[url];
+    }
+
+    function preloadModule(url, integrity) {
+        if (!preloads[url]) {
+            const link = withIntegrity(document.createElement('link'), integrity);
+            if (!link.relList || !link.relList.supports || !link.relList.supports('modulepreload')) {
+                // No events would fire, only the integrity of the import map applies where supported
+                return Promise.resolve();
+            }
+            preloads[url] = new Promise((resolve, reject) => {
+                link.onload = resolve;
+                link.onerror = () => reject(new Error('Failed to load ' + url
+                    + (integrity ? ' or its content does not match the integrity hash' : '')));
+            });
+            link.rel = 'modulepreload';
+            link.href = url;
+            document.head.appendChild(link);
+        }
+        return preloads[url];
+    }
+
+    function prefetch(file) {
+        // Fetched right away, evaluated once the dependencies have been evaluated
+        if (files[file.url] || file.added || file.type === 'css') {
+            return;
+        }
+        if (file.type === 'module') {
+            // Failures are reported by the import
+            preloadModule(file.url, file.integrity).catch(() => {});
+            return;
+        }
+        const link = withIntegrity(document.createElement('link'), file.integrity);
+        link.rel = 'preload';
+        link.as = 'script';
+        link.href = file.url;
+        document.head.appendChild(link);
+    }
+
+    function loadFile(library, file) {
+        if (file.added) {
+            return added(file.url);
+        }
+        switch (file.type) {
+            case 'css':
+                return loadStyleSheet(file.url, file.integrity);
+            case 'module':
+                return importModule(library, file.url, file.integrity);
+            default:
+                return loadScript(file.url, file.integrity);
+        }
+    }
+
+    function loadAfter(dependencies, library, file) {
+        if (dependencies.length === 0 || file.type === 'css') {
+            return loadFile(library, file);
+        }
+        const startTime = performance.now();
+        prefetch(file);
+        return Promise.all(dependencies.map(settled))
+            .then(() => loadFile(library, file))
+            .then(() => ({startTime, duration: performance.now() - startTime}));
+    }
+
+    function settled(library) {
+        if (!libraries[library]) {
+            libraries[library] = new Promise(resolve => waiting[library] = resolve);
+        }
+        return libraries[library];
+    }
+
+    /**
+     * Loads the files of the given libraries. Files of libraries with
+     * dependencies are fetched right away but evaluated only after the
+     * dependencies, which may be given in the same or an earlier call.
+     *
+     * @param descriptors array of {library, version, dependencies: [library], files: [{url, type, added, integrity}]}
+     * @returns promise of [{library, files: [{url, loaded, unknown, error, startTime, duration}]}],
+     *          resolved when every file has loaded or failed
+     */
+    function load(descriptors) {
+        window.vaadinjsloader = window.vaadinjsloader || {};
+        return Promise.all(descriptors.map(descriptor => {
+            const name = descriptor.library;
+            const dependencies = descriptor.dependencies || [];
+            window.vaadinjsloader[name] = descriptor.version;
+            const results = Promise.all(descriptor.files.map(file => loadAfter(dependencies, name, file).then(
+                timing => ({url: file.url, loaded: !timing.unknown, unknown: !!timing.unknown,
+                    startTime: timing.startTime, duration: timing.duration}),
+                error => ({url: file.url, loaded: false, error: String(error && error.message || error)}))))
+                // Also a library without scripts is ready only after its dependencies
+                .then(files => Promise.all(dependencies.map(settled)).then(() => files));
+            libraries[name] = results;
+            if (waiting[name]) {
+                waiting[name](results);
+                delete waiting[name];
+            }
+            return results.then(files => ({library: name, files}));
+        }));
+    }
+
+    /**
+     * Loads the files of the given libraries once the element is in or near
+     * the viewport.
+     *
+     * @param element the element to observe
+     * @param descriptors see load
+     * @param key identifies the load for cancelWhenVisible
+     * @returns promise of the results, see load, rejected if the load is
+     *          cancelled or the element is removed before it becomes visible
+     */
+    function loadWhenVisible(element, descriptors, key) {
+        if (!('IntersectionObserver' in window)) {
+            return load(descriptors);
+        }
+        return new Promise((resolve, reject) => {
+            const stop = () => {
+                observer.disconnect();
+                delete lazy[key];
+            };
+            // Start a bit before the element scrolls into view
+            const observer = new IntersectionObserver(entries => {
+                if (!element.isConnected) {
+                    stop();
+                    reject(new Error('The element was removed before it became visible'));
+                } else if (entries.some(entry => entry.isIntersecting)) {
+                    stop();
+                    resolve(load(descriptors));
+                }
+            }, {rootMargin: '200px'});
+            lazy[key] = () => {
+                stop();
+                reject(new Error('Cancelled before the element became visible'));
+            };
+            observer.observe(element);
+        });
+    }
+
+    /**
+     * Stops waiting for the element of a load, e.g. as it was detached.
+     *
+     * @param key the key given to loadWhenVisible
+     */
+    function cancelWhenVisible(key) {
+        if (lazy[key]) {
+            lazy[key]();
+        }
+    }
+
+    /**
+     * Waits for a library to be loaded.
+     *
+     * @param library the name of the library
+     * @returns promise of the absolute URLs of the files of the library,
+     *          rejected if a file is known to have failed to load
+     */
+    function whenLoaded(library) {
+        return settled(library).then(results => {
+            // Files with an unknown outcome may have loaded, as with the Page API
+            const failed = results.find(result => !result.loaded && !result.unknown);
+            if (failed) {
+                throw new Error(failed.error);
+            }
+            return results.map(result => new URL(result.url, document.baseURI).href);
+        });
+    }
+
+    /**
+     * Adds import map entries not in the import maps of the page yet. Only
+     * browsers supporting multiple import maps apply them once a module has
+     * been loaded.
+     *
+     * @param imports bare specifier -> URL
+     */
+    function addImports(imports) {
+        const known = {};
+        document.querySelectorAll('script[type="importmap"]').forEach(script => {
+            try {
+                Object.assign(known, JSON.parse(script.textContent).imports);
+            } catch (e) {
+                // Not ours to validate
+            }
+        });
+        const added = {};
+        Object.keys(imports).filter(specifier => !(specifier in known))
+            .forEach(specifier => added[specifier] = imports[specifier]);
+        if (Object.keys(added).length > 0) {
+            const script = document.createElement('script');
+            script.type = 'importmap';
+            script.textContent = JSON.stringify({imports: added});
+            document.head.appendChild(script);
+        }
+    }
+
+    return {load, loadWhenVisible, cancelWhenVisible, whenLoaded, addImports};
+})();
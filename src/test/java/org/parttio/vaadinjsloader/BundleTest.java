@@ -0,0 +1,127 @@
+package org.parttio.vaadinjsloader;
+
+import com.vaadin.flow.component.UI;
+import elemental.json.JsonArray;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class BundleTest {
+
+    @AfterEach
+    public void disableBundling() {
+        JSLoader.setBundling(false);
+        JSLoader.setBatching(JSLoader.Batching.NONE);
+    }
+
+    @Test
+    public void concatenatesWithSourceMapSections() {
+        Bundle bundle = Bundle.concatenate(List.of("/a.js", "/b.js"),
+                List.of("var a = 1\nvar b = 2\n".getBytes(), "var c = 3".getBytes()), false, "lib.bundle.js");
+
+        assertTrue(bundle.getSourceMapName().matches("lib\\.bundle\\.[\\w-]{12}\\.js\\.map"), bundle.getSourceMapName());
+        assertEquals("var a = 1\nvar b = 2\n;\nvar c = 3\n//# sourceMappingURL=" + bundle.getSourceMapName() + "\n",
+                new String(bundle.getContent(), StandardCharsets.UTF_8));
+        assertEquals("{\"version\":3,\"sections\":["
+                + "{\"offset\":{\"line\":0,\"column\":0},\"map\":{\"version\":3,\"sources\":[\"/a.js\"],\"names\":[],\"mappings\":\"AAAA;AACA\"}},"
+                + "{\"offset\":{\"line\":3,\"column\":0},\"map\":{\"version\":3,\"sources\":[\"/b.js\"],\"names\":[],\"mappings\":\"AAAA\"}}]}",
+                new String(bundle.getSourceMap(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void detectsDirectivePrologue() {
+        assertTrue(Bundle.hasDirective("'use strict';\nvar a;".getBytes()));
+        assertTrue(Bundle.hasDirective("\uFEFF#!/usr/bin/env node\n// header\n/* license */\n  \"use strict\"".getBytes(StandardCharsets.UTF_8)));
+        assertFalse(Bundle.hasDirective("var s = 'use strict';".getBytes()));
+        assertFalse(Bundle.hasDirective("/* 'use strict' */ window.a = 1;".getBytes()));
+        assertFalse(Bundle.hasDirective(new byte[0]));
+    }
+
+    @Test
+    public void strictScriptIsNotBundledWithSloppyScript() {
+        JSLoader.setBundling(true);
+        JSLoader.setBatching(JSLoader.Batching.LIBRARY);
+        UI ui = TestSession.openUI();
+
+        JSLoader.loadJavaResource(ui, TestView.class, "strictlib", "bundle-strict.js", "bundle-a.js");
+
+        JsonArray files = ((JsonArray) ui.getInternals().dumpPendingJavaScriptInvocations().get(0)
+                .getInvocation().getParameters().get(0)).getObject(0).getArray("files");
+        assertEquals(2, files.length());
+        assertEquals("/resources/strictlib/bundle-strict.js", files.getObject(0).getString("url"));
+        assertEquals("/resources/strictlib/bundle-a.js", files.getObject(1).getString("url"));
+    }
+
+    @Test
+    public void loadsScriptsAndStyleSheetsAsTwoBundles() throws Exception {
+        JSLoader.setBundling(true);
+        JSLoader.setBatching(JSLoader.Batching.LIBRARY);
+        UI ui = TestSession.openUI();
+
+        JSLoader.loadJavaResource(ui, TestView.class, "bundled", "bundle-a.js", "bundle-a.css", "bundle-b.js", "bundle-b.css");
+
+        JsonArray files = ((JsonArray) ui.getInternals().dumpPendingJavaScriptInvocations().get(0)
+                .getInvocation().getParameters().get(0)).getObject(0).getArray("files");
+        assertEquals(2, files.length());
+        String script = files.getObject(0).getString("url");
+        String style = files.getObject(1).getString("url");
+        assertTrue(script.matches("/resources/bundled/bundled\\.bundle\\.[\\w-]{12}\\.js"), script);
+        assertTrue(style.matches("/resources/bundled/bundled\\.bundle\\.[\\w-]{12}\\.css"), style);
+
+        JavaResourceHandlerTest.TestResponse response = JavaResourceHandlerTest.handle(
+                new JavaResourceHandlerTest.TestRequest(script));
+        assertEquals(200, response.status);
+        assertEquals("application/javascript", response.contentType);
+        assertEquals(JavaResourceHandler.IMMUTABLE_CACHE_CONTROL, response.headers.get("Cache-Control"));
+        String body = response.body.toString();
+        String sourceMap = body.substring(body.indexOf("sourceMappingURL=") + "sourceMappingURL=".length()).trim();
+        assertTrue(sourceMap.matches("bundled\\.bundle\\.[\\w-]{12}\\.js\\.map"), sourceMap);
+        assertEquals("window.bundled = [];\nwindow.bundled.push(\"a\")\n;\nwindow.bundled.push(\"b\");\n"
+                + "//# sourceMappingURL=" + sourceMap + "\n", body);
+
+        response = JavaResourceHandlerTest.handle(new JavaResourceHandlerTest.TestRequest(style));
+        assertEquals("text/css", response.contentType);
+        assertTrue(response.body.toString().startsWith(".a { color: red; }\n.b { color: blue; }\n"));
+
+        response = JavaResourceHandlerTest.handle(
+                new JavaResourceHandlerTest.TestRequest("/resources/bundled/" + sourceMap));
+        assertEquals(200, response.status);
+        assertEquals("application/json", response.contentType);
+        assertTrue(response.body.toString().contains("\"sources\":[\"/resources/bundled/bundle-b.js\"]"), response.body.toString());
+    }
+
+    @Test
+    public void bundlesOfOneLibraryKeepTheirSourceMaps() throws Exception {
+        JSLoader.setBundling(true);
+        JSLoader.setBatching(JSLoader.Batching.LIBRARY);
+
+        String first = bundleUrl(TestSession.openUI(), "bundle-a.js", "bundle-b.js");
+        String second = bundleUrl(TestSession.openUI(), "bundle-b.js", "bundle-a.js");
+        assertNotEquals(sourceMapOf(first), sourceMapOf(second));
+
+        String map = JavaResourceHandlerTest.handle(new JavaResourceHandlerTest.TestRequest(
+                "/resources/mapped/" + sourceMapOf(first))).body.toString();
+        assertTrue(map.indexOf("bundle-a.js") < map.indexOf("bundle-b.js"), map);
+        map = JavaResourceHandlerTest.handle(new JavaResourceHandlerTest.TestRequest(
+                "/resources/mapped/" + sourceMapOf(second))).body.toString();
+        assertTrue(map.indexOf("bundle-b.js") < map.indexOf("bundle-a.js"), map);
+    }
+
+    private static String bundleUrl(UI ui, String... files) {
+        JSLoader.loadJavaResource(ui, TestView.class, "mapped", files);
+        return ((JsonArray) ui.getInternals().dumpPendingJavaScriptInvocations().get(0).getInvocation()
+                .getParameters().get(0)).getObject(0).getArray("files").getObject(0).getString("url");
+    }
+
+    private static String sourceMapOf(String bundleUrl) throws Exception {
+        String body = JavaResourceHandlerTest.handle(new JavaResourceHandlerTest.TestRequest(bundleUrl)).body.toString();
+        return body.substring(body.indexOf("sourceMappingURL=") + "sourceMappingURL=".length()).trim();
+    }
+}
@@ -0,0 +1,124 @@
+package org.parttio.vaadinjsloader;
+
+import com.sun.net.httpserver.HttpServer;
+import com.vaadin.flow.component.UI;
+import elemental.json.JsonArray;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class CdnMirrorTest {
+
+    private static final String SCRIPT = "window.mirrored = true;";
+
+    @TempDir
+    Path store;
+
+    private HttpServer cdn;
+    private String pattern;
+    private final AtomicInteger requests = new AtomicInteger();
+
+    @BeforeEach
+    public void startCdn() throws IOException {
+        // Stands in for unpkg.com, including the redirect of a bare package URL
+        cdn = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        cdn.createContext("/", exchange -> {
+            requests.incrementAndGet();
+            String path = exchange.getRequestURI().getPath();
+            if (path.equals("/lib@1.0")) {
+                exchange.getResponseHeaders().add("Location", "/lib@1.0/dist/lib.js");
+                exchange.sendResponseHeaders(302, -1);
+            } else if (path.equals("/lib@1.0/dist/lib.js")) {
+                byte[] body = SCRIPT.getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().add("Content-Type", "application/javascript");
+                exchange.sendResponseHeaders(200, body.length);
+                exchange.getResponseBody().write(body);
+            } else {
+                exchange.sendResponseHeaders(404, -1);
+            }
+            exchange.close();
+        });
+        cdn.start();
+        pattern = "http://localhost:" + cdn.getAddress().getPort() + "/{library}@{version}";
+    }
+
+    @AfterEach
+    public void stopCdn() {
+        JSLoader.setMirror(null);
+        cdn.stop(0);
+    }
+
+    @Test
+    public void servesMirroredLibraryFromSameOrigin() throws Exception {
+        CdnMirror mirror = new CdnMirror(store);
+        mirror.fetch(pattern, "lib", "1.0");
+        JSLoader.setMirror(mirror);
+
+        UI ui = TestSession.openUI();
+        JSLoader.setBatching(JSLoader.Batching.LIBRARY);
+        try {
+            JSLoader.loadFiles(ui, pattern, "lib", "1.0");
+        } finally {
+            JSLoader.setBatching(JSLoader.Batching.NONE);
+        }
+        JsonArray libraries = (JsonArray) ui.getInternals().dumpPendingJavaScriptInvocations().get(0)
+                .getInvocation().getParameters().get(0);
+        String url = libraries.getObject(0).getArray("files").getObject(0).getString("url");
+        assertEquals(CdnMirror.MIRROR_PATH + "localhost_" + cdn.getAddress().getPort() + "/lib@1.0/index.js", url);
+
+        JavaResourceHandlerTest.TestResponse response = JavaResourceHandlerTest.handle(
+                new JavaResourceHandlerTest.TestRequest(url));
+        assertEquals(200, response.status);
+        assertEquals("application/javascript", response.contentType);
+        assertNotNull(response.headers.get("ETag"));
+        assertEquals(JSLoader.getResourceCacheControl(), response.headers.get("Cache-Control"));
+        assertEquals(SCRIPT, response.body.toString());
+    }
+
+    @Test
+    public void reusesStoreWithoutFetching() throws Exception {
+        new CdnMirror(store).fetch(pattern, "lib", "1.0");
+        int fetched = requests.get();
+
+        CdnMirror reopened = new CdnMirror(store);
+        reopened.fetch(pattern, "lib", "1.0");
+        assertEquals(fetched, requests.get());
+        assertNotNull(reopened.getLocalUrl(pattern.replace("{library}", "lib").replace("{version}", "1.0")));
+    }
+
+    @Test
+    public void failsOnMissingFile() throws Exception {
+        CdnMirror mirror = new CdnMirror(store);
+        assertThrows(IOException.class, () -> mirror.fetch(pattern, "missing", "1.0"));
+        assertNull(mirror.getLocalUrl("http://localhost:" + cdn.getAddress().getPort() + "/missing@1.0"));
+    }
+
+    @Test
+    public void mapsUrlsToStoreFiles() {
+        assertEquals("cdnjs.cloudflare.com/ajax/libs/jquery/3.7.1/jquery.min.js", CdnMirror.toFile(
+                URI.create("https://cdnjs.cloudflare.com/ajax/libs/jquery/3.7.1/jquery.min.js"), "text/javascript"));
+        assertEquals("unpkg.com/three@0.158.0/index.js",
+                CdnMirror.toFile(URI.create("https://unpkg.com/three@0.158.0"), "application/javascript; charset=utf-8"));
+        assertEquals("unpkg.com/a/b.css", CdnMirror.toFile(URI.create("https://unpkg.com/a/../b.css"), ""));
+
+        String v1 = CdnMirror.toFile(URI.create("https://example.com/lib.js?v=1"), "");
+        String v2 = CdnMirror.toFile(URI.create("https://example.com/lib.js?v=2"), "");
+        assertNotEquals(v1, v2);
+        assertTrue(v1.matches("example\\.com/lib\\.[\\w-]{12}\\.js"), v1);
+    }
+}
@@ -0,0 +1,285 @@
+package org.parttio.vaadinjsloader;
+
+import com.vaadin.flow.component.UI;
+import com.vaadin.flow.component.html.Div;
+import com.vaadin.flow.component.internal.PendingJavaScriptInvocation;
+import elemental.json.Json;
+import elemental.json.JsonArray;
+import elemental.json.JsonObject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ClientLoaderTest {
+
+    private static final String PATTERN = "/{library}-{version}/{file}";
+
+    @AfterEach
+    public void resetBatching() {
+        JSLoader.setBatching(JSLoader.Batching.NONE);
+        JSLoader.setMetrics(null);
+    }
+
+    @Test
+    public void libraryIsSentAsSingleInvocation() {
+        JSLoader.setBatching(JSLoader.Batching.LIBRARY);
+        UI ui = TestSession.openUI();
+
+        JSLoader.loadFiles(ui, PATTERN, "mylib", "1.0", "a.js", "b.js", "c.mjs", "d.css");
+
+        List<PendingJavaScriptInvocation> invocations = ui.getInternals().dumpPendingJavaScriptInvocations();
+        assertEquals(1, invocations.size());
+        JsonArray libraries = (JsonArray) invocations.get(0).getInvocation().getParameters().get(0);
+        JsonObject library = libraries.getObject(0);
+        assertEquals("mylib", library.getString("library"));
+        assertEquals("1.0", library.getString("version"));
+        JsonArray files = library.getArray("files");
+        assertEquals(4, files.length());
+        assertEquals("/mylib-1.0/a.js", files.getObject(0).getString("url"));
+        assertEquals("script", files.getObject(0).getString("type"));
+        assertEquals("module", files.getObject(2).getString("type"));
+        assertEquals("css", files.getObject(3).getString("type"));
+        assertTrue(JSLoader.isLoaded(ui, "mylib", "1.0"));
+    }
+
+    @Test
+    public void loaderSourceIsSentOnce() {
+        JSLoader.setBatching(JSLoader.Batching.LIBRARY);
+        UI ui = TestSession.openUI();
+
+        JSLoader.loadFiles(ui, PATTERN, "lib1", "1.0", "a.js");
+        JSLoader.loadFiles(ui, PATTERN, "lib2", "1.0", "a.js");
+
+        List<PendingJavaScriptInvocation> invocations = ui.getInternals().dumpPendingJavaScriptInvocations();
+        assertEquals(2, invocations.size());
+        assertTrue(invocations.get(0).getInvocation().getExpression().contains("window.Vaadin.jsloader ="));
+        assertFalse(invocations.get(1).getInvocation().getExpression().contains("window.Vaadin.jsloader ="));
+    }
+
+    @Test
+    public void roundTripIsSentAsSingleInvocation() {
+        JSLoader.setBatching(JSLoader.Batching.ROUND_TRIP);
+        UI ui = TestSession.openUI();
+
+        JSLoader.loadFiles(ui, PATTERN, "lib1", "1.0", "a.js", "b.css");
+        JSLoader.loadFiles(ui, PATTERN, "lib2", "2.0", "a.js");
+        JSLoader.loadFiles(ui, PATTERN, "lib1", "1.0", "a.js");
+        assertEquals(0, ui.getInternals().dumpPendingJavaScriptInvocations().size());
+
+        ui.getInternals().getStateTree().runExecutionsBeforeClientResponse();
+
+        List<PendingJavaScriptInvocation> invocations = ui.getInternals().dumpPendingJavaScriptInvocations();
+        assertEquals(1, invocations.size());
+        JsonArray libraries = (JsonArray) invocations.get(0).getInvocation().getParameters().get(0);
+        assertEquals(2, libraries.length());
+        assertEquals("lib2", libraries.getObject(1).getString("library"));
+    }
+
+    @Test
+    public void modulesAreOnlyImportedByLoader() {
+        UI ui = TestSession.openUI();
+
+        JSLoader.loadFiles(ui, PATTERN, "mymodule", "1.0", "a.js", "b.mjs");
+
+        List<PendingJavaScriptInvocation> invocations = ui.getInternals().dumpPendingJavaScriptInvocations();
+        assertEquals(1, invocations.size());
+        JsonArray files = ((JsonArray) invocations.get(0).getInvocation().getParameters().get(0))
+                .getObject(0).getArray("files");
+        assertTrue(files.getObject(0).getBoolean("added"));
+        assertEquals("module", files.getObject(1).getString("type"));
+        assertFalse(files.getObject(1).hasKey("added"));
+        assertFalse(invocations.get(0).getInvocation().getExpression().contains("await import("));
+    }
+
+    @Test
+    public void futureCompletesWithReportedFiles() throws Exception {
+        UI ui = TestSession.openUI();
+
+        CompletableFuture<LoadResult> future = JSLoader.loadFiles(ui, PATTERN, "mylib", "1.0", "a.js", "b.css");
+        assertFalse(future.isDone());
+        assertSame(future, JSLoader.loadFiles(ui, PATTERN, "mylib", "1.0", "a.js", "b.css"));
+
+        PendingJavaScriptInvocation invocation = ui.getInternals().dumpPendingJavaScriptInvocations().get(0);
+        invocation.complete(Json.instance().parse("[{'library': 'mylib', 'files': ["
+                + "{'url': '/mylib-1.0/a.js', 'loaded': true, 'startTime': 10.5, 'duration': 20},"
+                + "{'url': '/mylib-1.0/b.css', 'loaded': false, 'error': 'Failed to load'}]}]"));
+
+        LoadResult result = future.getNow(null);
+        assertEquals("mylib", result.getLibrary());
+        assertEquals("1.0", result.getVersion());
+        assertFalse(result.isSuccessful());
+        assertEquals(2, result.getFiles().size());
+        assertTrue(result.getFiles().get(0).isLoaded());
+        assertEquals(20, result.getFiles().get(0).getDuration());
+        assertEquals("Failed to load", result.getFiles().get(1).getError());
+    }
+
+    @Test
+    public void pageApiFilesWithoutObservableOutcomeAreUnknown() {
+        UI ui = TestSession.openUI();
+
+        CompletableFuture<LoadResult> future = JSLoader.loadFiles(ui, PATTERN, "cdnlib", "1.0", "a.js");
+        ui.getInternals().dumpPendingJavaScriptInvocations().get(0).complete(Json.instance().parse(
+                "[{'library': 'cdnlib', 'files': [{'url': '/cdnlib-1.0/a.js', 'loaded': false, 'unknown': true,"
+                        + " 'startTime': 0, 'duration': 0}]}]"));
+
+        LoadResult.FileResult file = future.getNow(null).getFiles().get(0);
+        assertFalse(file.isLoaded());
+        assertTrue(file.isUnknown());
+        assertNull(file.getError());
+        assertTrue(future.getNow(null).isSuccessful());
+    }
+
+    @Test
+    public void futureFailsWhenUIIsDetached() {
+        UI ui = TestSession.openUI();
+
+        CompletableFuture<LoadResult> future = JSLoader.loadFiles(ui, PATTERN, "mylib", "1.0", "a.js");
+        ui.getInternals().setSession(null);
+
+        assertTrue(future.isCompletedExceptionally());
+    }
+
+    @Test
+    public void lazyLibraryIsPendingUntilVisible() {
+        UI ui = TestSession.openUI();
+        Div widget = new Div();
+
+        CompletableFuture<LoadResult> future = JSLoader.loadFilesWhenVisible(widget, PATTERN, "chart", "1.0", "chart.js");
+        assertEquals(0, ui.getInternals().dumpPendingJavaScriptInvocations().size());
+        ui.add(widget);
+
+        assertTrue(JSLoader.isPending(ui, "chart"));
+        assertFalse(JSLoader.isLoaded(ui, "chart"));
+        List<PendingJavaScriptInvocation> invocations = ui.getInternals().dumpPendingJavaScriptInvocations();
+        assertEquals(1, invocations.size());
+        assertTrue(invocations.get(0).getInvocation().getExpression().contains("loadWhenVisible($1, $0, $2)"));
+        assertEquals(widget.getElement(), invocations.get(0).getInvocation().getParameters().get(1));
+
+        invocations.get(0).complete(Json.instance().parse("[{'library': 'chart', 'files': ["
+                + "{'url': '/chart-1.0/chart.js', 'loaded': true, 'startTime': 1, 'duration': 2}]}]"));
+        assertTrue(future.isDone());
+        assertFalse(JSLoader.isPending(ui, "chart"));
+        assertTrue(JSLoader.isLoaded(ui, "chart", "1.0"));
+    }
+
+    @Test
+    public void lazyLoadResumesWhenElementIsAttachedAgain() {
+        UI ui = TestSession.openUI();
+        Div widget = new Div();
+        ui.add(widget);
+
+        CompletableFuture<LoadResult> future = JSLoader.loadFilesWhenVisible(widget, PATTERN, "map", "1.0", "map.js");
+        ui.getInternals().dumpPendingJavaScriptInvocations();
+        assertTrue(JSLoader.isPending(ui, "map"));
+
+        ui.remove(widget);
+
+        assertFalse(future.isDone());
+        assertFalse(JSLoader.isPending(ui, "map"));
+        assertFalse(JSLoader.isLoaded(ui, "map"));
+        List<PendingJavaScriptInvocation> invocations = ui.getInternals().dumpPendingJavaScriptInvocations();
+        assertEquals(1, invocations.size());
+        assertTrue(invocations.get(0).getInvocation().getExpression().contains("cancelWhenVisible($0)"));
+
+        // E.g. a tab shown again
+        ui.add(widget);
+        assertTrue(JSLoader.isPending(ui, "map"));
+        invocations = ui.getInternals().dumpPendingJavaScriptInvocations();
+        assertEquals(1, invocations.size());
+        assertTrue(invocations.get(0).getInvocation().getExpression().contains("loadWhenVisible($1, $0, $2)"));
+
+        invocations.get(0).complete(Json.instance().parse("[{'library': 'map', 'files': ["
+                + "{'url': '/map-1.0/map.js', 'loaded': true, 'startTime': 1, 'duration': 2}]}]"));
+        assertTrue(future.join().isSuccessful());
+        assertTrue(JSLoader.isLoaded(ui, "map", "1.0"));
+    }
+
+    @Test
+    public void lazyLoadResumesWhenElementIsMoved() {
+        UI ui = TestSession.openUI();
+        Div first = new Div();
+        Div second = new Div();
+        Div widget = new Div();
+        first.add(widget);
+        ui.add(first, second);
+
+        CompletableFuture<LoadResult> future = JSLoader.loadFilesWhenVisible(widget, PATTERN, "map", "1.0", "map.js");
+        ui.getInternals().dumpPendingJavaScriptInvocations();
+
+        second.add(widget);
+
+        assertTrue(JSLoader.isPending(ui, "map"));
+        List<PendingJavaScriptInvocation> invocations = ui.getInternals().dumpPendingJavaScriptInvocations();
+        assertEquals(2, invocations.size());
+        assertTrue(invocations.get(0).getInvocation().getExpression().contains("cancelWhenVisible($0)"));
+        assertTrue(invocations.get(1).getInvocation().getExpression().contains("loadWhenVisible($1, $0, $2)"));
+        invocations.get(1).complete(Json.instance().parse("[{'library': 'map', 'files': ["
+                + "{'url': '/map-1.0/map.js', 'loaded': true, 'startTime': 1, 'duration': 2}]}]"));
+        assertTrue(future.isDone());
+    }
+
+    @Test
+    public void lazyLoadStaysPendingWhileAnotherComponentWaits() {
+        UI ui = TestSession.openUI();
+        Div first = new Div();
+        Div second = new Div();
+        ui.add(first, second);
+
+        CompletableFuture<LoadResult> future = JSLoader.loadFilesWhenVisible(first, PATTERN, "map", "1.0", "map.js");
+        PendingJavaScriptInvocation invocation = ui.getInternals().dumpPendingJavaScriptInvocations().get(0);
+        JSLoader.loadFilesWhenVisible(second, PATTERN, "map", "1.0", "map.js");
+        ui.getInternals().dumpPendingJavaScriptInvocations();
+
+        ui.remove(second);
+        assertTrue(JSLoader.isPending(ui, "map"));
+
+        invocation.complete(Json.instance().parse("[{'library': 'map', 'files': ["
+                + "{'url': '/map-1.0/map.js', 'loaded': true, 'startTime': 1, 'duration': 2}]}]"));
+        assertTrue(JSLoader.isLoaded(ui, "map", "1.0"));
+        assertEquals(future.join().getFiles(),
+                JSLoader.loadFiles(ui, PATTERN, "map", "1.0", "map.js").join().getFiles());
+        assertEquals(1, future.join().getFiles().size());
+    }
+
+    @Test
+    public void metricsRecordLoadsAndClientTimings() {
+        List<String> events = new ArrayList<>();
+        JSLoader.setMetrics(new LoaderMetrics() {
+            @Override
+            public void loadRequested(String library, boolean skipped) {
+                events.add((skipped ? "skipped " : "requested ") + library);
+            }
+
+            @Override
+            public void libraryLoaded(LoadResult result, long nanos) {
+                result.getFiles().forEach(file -> events.add("file " + file.getUrl() + " " + file.getDuration()));
+            }
+
+            @Override
+            public void registryChanged(int previousSize, int size) {
+                events.add("registry " + previousSize + " " + size);
+            }
+        });
+        UI ui = TestSession.openUI();
+
+        JSLoader.loadFiles(ui, PATTERN, "mylib", "1.0", "a.js");
+        JSLoader.loadFiles(ui, PATTERN, "mylib", "1.0", "a.js");
+        ui.getInternals().dumpPendingJavaScriptInvocations().get(0).complete(Json.instance().parse(
+                "[{'library': 'mylib', 'files': [{'url': '/mylib-1.0/a.js', 'loaded': true, 'startTime': 1, 'duration': 2}]}]"));
+
+        assertEquals(List.of("registry 0 1", "requested mylib", "skipped mylib", "file /mylib-1.0/a.js 2.0"), events);
+
+        ui.getInternals().setSession(null);
+        assertEquals("registry 1 0", events.get(events.size() - 1));
+    }
+}
@@ -0,0 +1,94 @@
+package org.parttio.vaadinjsloader;
+
+import com.vaadin.flow.component.UI;
+import com.vaadin.flow.component.internal.PendingJavaScriptInvocation;
+import com.vaadin.flow.server.VaadinSession;
+import com.vaadin.flow.server.communication.IndexHtmlResponse;
+import elemental.json.Json;
+import elemental.json.JsonObject;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ImportMapTest {
+
+    @AfterEach
+    public void clear() {
+        ImportMap.get().clear();
+    }
+
+    @Test
+    public void addsImportMapFirstInHead() {
+        assertTrue(JSLoader.addImport(JSLoader.URL_PATTERN_UNPKGCOM_FILES, "three", "0.158.0", "build/three.module.js"));
+        assertTrue(JSLoader.addImport(JSLoader.URL_PATTERN_UNPKGCOM, "lit", "3.1.0", null));
+
+        Document document = Document.createShell("");
+        document.head().appendElement("script").attr("type", "module").attr("src", "/VAADIN/build/index.js");
+        ImportMap.get().modifyIndexHtmlResponse(new IndexHtmlResponse(null, null, document));
+
+        Element script = document.head().child(0);
+        assertEquals("importmap", script.attr("type"));
+        JsonObject imports = ((JsonObject) Json.parse(script.data())).getObject("imports");
+        assertEquals("https://unpkg.com/three@0.158.0/build/three.module.js", imports.getString("three"));
+        assertEquals("https://unpkg.com/three@0.158.0/", imports.getString("three/"));
+        assertEquals("https://unpkg.com/lit@3.1.0", imports.getString("lit"));
+        assertEquals("https://unpkg.com/lit@3.1.0/", imports.getString("lit/"));
+    }
+
+    @Test
+    public void reportsConflictingVersions() {
+        assertTrue(JSLoader.addImport(JSLoader.URL_PATTERN_UNPKGCOM, "lit", "3.1.0", null));
+        assertTrue(JSLoader.addImport(JSLoader.URL_PATTERN_UNPKGCOM, "lit", "3.1.0", null));
+        assertFalse(JSLoader.addImport(JSLoader.URL_PATTERN_UNPKGCOM, "lit", "2.8.0", null));
+        assertEquals("https://unpkg.com/lit@3.1.0", ImportMap.get().toJson(0).getString("lit"));
+
+        assertFalse(ImportMap.get().checkVersion("lit", "3.1.0"));
+        assertTrue(ImportMap.get().checkVersion("lit", "2.8.0"));
+        assertFalse(ImportMap.get().checkVersion("other", "1.0"));
+    }
+
+    @Test
+    public void newImportsAreSentWithNextLoad() {
+        UI ui = TestSession.openUI();
+        JSLoader.addImport(JSLoader.URL_PATTERN_UNPKGCOM, "lit", "3.1.0", null);
+
+        JSLoader.loadFiles(ui, "/{library}-{version}/{file}", "lib1", "1.0", "a.mjs");
+        JSLoader.loadFiles(ui, "/{library}-{version}/{file}", "lib2", "1.0", "a.mjs");
+
+        List<PendingJavaScriptInvocation> invocations = ui.getInternals().dumpPendingJavaScriptInvocations();
+        assertTrue(invocations.get(0).getInvocation().getExpression().contains("addImports($1)"));
+        JsonObject imports = (JsonObject) invocations.get(0).getInvocation().getParameters().get(1);
+        assertEquals("https://unpkg.com/lit@3.1.0", imports.getString("lit"));
+        assertFalse(invocations.get(1).getInvocation().getExpression().contains("addImports"));
+    }
+
+    @Test
+    public void importsRenderedIntoPageAreNotSentAgain() {
+        JSLoader.addImport(JSLoader.URL_PATTERN_UNPKGCOM, "lit", "3.1.0", null);
+        TestSession session = new TestSession();
+        VaadinSession.setCurrent(session);
+        try {
+            ImportMap.get().modifyIndexHtmlResponse(new IndexHtmlResponse(null, null, Document.createShell("")));
+        } finally {
+            VaadinSession.setCurrent(null);
+        }
+        JSLoader.addImport(JSLoader.URL_PATTERN_UNPKGCOM, "three", "0.158.0", null);
+        UI ui = new UI();
+        ui.getInternals().setSession(session);
+
+        JSLoader.loadFiles(ui, "/{library}-{version}/{file}", "lib1", "1.0", "a.mjs");
+
+        PendingJavaScriptInvocation invocation = ui.getInternals().dumpPendingJavaScriptInvocations().get(0);
+        assertTrue(invocation.getInvocation().getExpression().contains("addImports($1)"));
+        JsonObject imports = (JsonObject) invocation.getInvocation().getParameters().get(1);
+        assertFalse(imports.hasKey("lit"));
+        assertEquals("https://unpkg.com/three@0.158.0", imports.getString("three"));
+    }
+}
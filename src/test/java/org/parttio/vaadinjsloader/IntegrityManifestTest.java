@@ -0,0 +1,136 @@
+package org.parttio.vaadinjsloader;
+
+import com.sun.net.httpserver.HttpServer;
+import com.vaadin.flow.component.UI;
+import com.vaadin.flow.component.internal.PendingJavaScriptInvocation;
+import com.vaadin.flow.shared.ui.Dependency;
+import elemental.json.JsonArray;
+import elemental.json.JsonObject;
+import org.jsoup.nodes.Element;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class IntegrityManifestTest {
+
+    private static final byte[] SCRIPT = "window.verified = true;".getBytes(StandardCharsets.UTF_8);
+    private static final String PATTERN = "/{library}-{version}/{file}";
+
+    @TempDir
+    Path dir;
+
+    private HttpServer cdn;
+    private final AtomicInteger requests = new AtomicInteger();
+
+    @BeforeEach
+    public void startCdn() throws IOException {
+        cdn = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        cdn.createContext("/", exchange -> {
+            requests.incrementAndGet();
+            if (exchange.getRequestURI().getPath().equals("/lib@1.0/lib.js")) {
+                exchange.sendResponseHeaders(200, SCRIPT.length);
+                exchange.getResponseBody().write(SCRIPT);
+            } else {
+                exchange.sendResponseHeaders(404, -1);
+            }
+            exchange.close();
+        });
+        cdn.start();
+    }
+
+    @AfterEach
+    public void reset() {
+        JSLoader.setIntegrityManifest(null);
+        JSLoader.setMirror(null);
+        JSLoader.setBatching(JSLoader.Batching.NONE);
+        cdn.stop(0);
+    }
+
+    @Test
+    public void fetchedHashesArePersisted() throws Exception {
+        String pattern = "http://localhost:" + cdn.getAddress().getPort() + "/{library}@{version}/{file}";
+        Path file = dir.resolve("integrity.properties");
+        IntegrityManifest manifest = new IntegrityManifest(file);
+        manifest.fetch(pattern, "lib", "1.0", "lib.js");
+
+        String url = pattern.replace("{library}@{version}/{file}", "lib@1.0/lib.js");
+        String integrity = manifest.get(url);
+        assertEquals(IntegrityManifest.compute(SCRIPT), integrity);
+        assertTrue(integrity.startsWith("sha384-"));
+        assertTrue(Files.exists(file));
+
+        IntegrityManifest reopened = new IntegrityManifest(file);
+        assertEquals(integrity, reopened.fetch(url));
+        assertEquals(1, requests.get());
+    }
+
+    @Test
+    public void filesWithHashesAreLoadedWithIntegrity() {
+        IntegrityManifest manifest = new IntegrityManifest();
+        manifest.add("/lib-1.0/a.js", "sha384-aaaa");
+        manifest.add("/lib-1.0/c.mjs", "sha384-cccc");
+        JSLoader.setIntegrityManifest(manifest);
+        UI ui = TestSession.openUI();
+
+        JSLoader.loadFiles(ui, PATTERN, "lib", "1.0", "a.js", "b.js", "c.mjs");
+
+        // Only the file without a hash is added with the Page API
+        List<String> added = ui.getInternals().getDependencyList().getPendingSendToClient().stream()
+                .map(Dependency::getUrl).toList();
+        assertEquals(List.of("/lib-1.0/b.js"), added);
+        List<PendingJavaScriptInvocation> invocations = ui.getInternals().dumpPendingJavaScriptInvocations();
+        JsonArray files = ((JsonArray) invocations.get(0).getInvocation().getParameters().get(0))
+                .getObject(0).getArray("files");
+        assertEquals("sha384-aaaa", files.getObject(0).getString("integrity"));
+        assertFalse(files.getObject(0).hasKey("added"));
+        assertTrue(files.getObject(1).getBoolean("added"));
+        assertFalse(files.getObject(1).hasKey("integrity"));
+        assertEquals("sha384-cccc", files.getObject(2).getString("integrity"));
+    }
+
+    @Test
+    public void mirroredFilesKeepIntegrityOfCdnFiles() throws Exception {
+        String pattern = "http://localhost:" + cdn.getAddress().getPort() + "/{library}@{version}/{file}";
+        IntegrityManifest manifest = new IntegrityManifest();
+        manifest.fetch(pattern, "lib", "1.0", "lib.js");
+        CdnMirror mirror = new CdnMirror(dir.resolve("mirror"));
+        mirror.fetch(pattern, "lib", "1.0", "lib.js");
+        JSLoader.setIntegrityManifest(manifest);
+        JSLoader.setMirror(mirror);
+        UI ui = TestSession.openUI();
+
+        JSLoader.loadFiles(ui, pattern, "lib", "1.0", "lib.js");
+
+        JsonObject file = ((JsonArray) ui.getInternals().dumpPendingJavaScriptInvocations().get(0)
+                .getInvocation().getParameters().get(0)).getObject(0).getArray("files").getObject(0);
+        assertTrue(file.getString("url").startsWith(CdnMirror.MIRROR_PATH));
+        assertEquals(IntegrityManifest.compute(SCRIPT), file.getString("integrity"));
+        assertEquals(IntegrityManifest.compute(SCRIPT),
+                PreloadListener.createLink(file.getString("url")).attr("integrity"));
+    }
+
+    @Test
+    public void preloadTagsCarryIntegrity() {
+        IntegrityManifest manifest = new IntegrityManifest();
+        manifest.add("/lib-1.0/a.js", "sha384-aaaa");
+        JSLoader.setIntegrityManifest(manifest);
+
+        Element link = PreloadListener.createLink("/lib-1.0/a.js");
+        assertEquals("sha384-aaaa", link.attr("integrity"));
+        assertEquals("anonymous", link.attr("crossorigin"));
+        assertFalse(PreloadListener.createLink("/lib-1.0/b.js").hasAttr("integrity"));
+    }
+}
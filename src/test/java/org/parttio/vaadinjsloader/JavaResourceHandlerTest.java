@@ -0,0 +1,450 @@
+package org.parttio.vaadinjsloader;
+
+import com.vaadin.flow.server.VaadinRequest;
+import com.vaadin.flow.server.VaadinResponse;
+import com.vaadin.flow.server.VaadinSession;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.lang.reflect.Proxy;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class JavaResourceHandlerTest {
+
+    private static final String URL = JSLoader.PUBLIC_JAVA_RESOURCE_PATH + "jsresource/jsresource.js";
+
+    @BeforeAll
+    public static void register() {
+        JavaResourceHandler.get().register(TestView.class, "jsresource", "jsresource.js");
+    }
+
+    @Test
+    public void ignoresOtherRequests() throws Exception {
+        assertFalse(handle(new TestRequest("/")).handled);
+        assertFalse(handle(new TestRequest(null)).handled);
+        assertFalse(handle(new TestRequest(JSLoader.PUBLIC_JAVA_RESOURCE_PATH + "jsresource/other.js")).handled);
+        assertFalse(handle(new TestRequest(JSLoader.PUBLIC_JAVA_RESOURCE_PATH + "other/jsresource.js")).handled);
+    }
+
+    @Test
+    public void servesResourceWithValidators() throws Exception {
+        TestResponse response = handle(new TestRequest(URL));
+
+        assertTrue(response.handled);
+        assertEquals(200, response.status);
+        assertEquals("application/javascript", response.contentType);
+        assertNotNull(response.headers.get("ETag"));
+        assertTrue(response.dates.containsKey("Last-Modified"));
+        assertEquals(JSLoader.getResourceCacheControl(), response.headers.get("Cache-Control"));
+        assertEquals(new String(TestView.class.getResourceAsStream("jsresource.js").readAllBytes()),
+                response.body.toString());
+    }
+
+    @Test
+    public void answersIfNoneMatchWithNotModified() throws Exception {
+        String eTag = handle(new TestRequest(URL)).headers.get("ETag");
+
+        TestResponse response = handle(new TestRequest(URL).header("If-None-Match", eTag));
+        assertEquals(304, response.status);
+        assertEquals(0, response.body.size());
+
+        response = handle(new TestRequest(URL).header("If-None-Match", "\"other\""));
+        assertEquals(200, response.status);
+    }
+
+    @Test
+    public void answersIfModifiedSinceWithNotModified() throws Exception {
+        long lastModified = handle(new TestRequest(URL)).dates.get("Last-Modified");
+
+        TestResponse response = handle(new TestRequest(URL).date("If-Modified-Since", lastModified));
+        assertEquals(304, response.status);
+
+        response = handle(new TestRequest(URL).date("If-Modified-Since", lastModified - 10_000));
+        assertEquals(200, response.status);
+    }
+
+    @Test
+    public void servesFingerprintedUrlAsImmutable() throws Exception {
+        String fingerprinted = JavaResourceHandler.get().fingerprint(null, URL);
+        assertTrue(fingerprinted.matches(".*/jsresource/jsresource\\.[\\w-]{12}\\.js"), fingerprinted);
+        assertEquals(fingerprinted, JavaResourceHandler.get().fingerprint(null, URL));
+
+        TestResponse response = handle(new TestRequest(fingerprinted));
+        assertEquals(200, response.status);
+        assertEquals("application/javascript", response.contentType);
+        assertEquals(JavaResourceHandler.IMMUTABLE_CACHE_CONTROL, response.headers.get("Cache-Control"));
+        assertEquals(handle(new TestRequest(URL)).body.toString(), response.body.toString());
+    }
+
+    @Test
+    public void doesNotFingerprintOtherUrls() {
+        String url = "https://unpkg.com/three@0.158.0";
+        assertEquals(url, JavaResourceHandler.get().fingerprint(null, url));
+        url = JSLoader.PUBLIC_JAVA_RESOURCE_PATH + "jsresource/missing.js";
+        assertEquals(url, JavaResourceHandler.get().fingerprint(null, url));
+    }
+
+    @Test
+    public void insertsHashBeforeExtension() {
+        assertEquals("/lib/a.min.h.js", JavaResourceHandler.insertHash("/lib/a.min.js", "h"));
+        assertEquals("/lib.v1/a.h", JavaResourceHandler.insertHash("/lib.v1/a", "h"));
+    }
+
+    @Test
+    public void compressesWithGzip() throws Exception {
+        TestResponse identity = handle(new TestRequest(URL));
+        TestResponse response = handle(new TestRequest(URL).header("Accept-Encoding", "gzip, deflate, br"));
+
+        assertEquals(200, response.status);
+        assertEquals("gzip", response.headers.get("Content-Encoding"));
+        assertEquals("Accept-Encoding", response.headers.get("Vary"));
+        assertEquals("Accept-Encoding", identity.headers.get("Vary"));
+        assertNotEquals(identity.headers.get("ETag"), response.headers.get("ETag"));
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(response.body.toByteArray()))) {
+            assertEquals(identity.body.toString(), new String(in.readAllBytes()));
+        }
+
+        String eTag = response.headers.get("ETag");
+        response = handle(new TestRequest(URL).header("Accept-Encoding", "gzip").header("If-None-Match", eTag));
+        assertEquals(304, response.status);
+        assertEquals("gzip", response.headers.get("Content-Encoding"));
+    }
+
+    @Test
+    public void servesPrecompressedSiblings() throws Exception {
+        JavaResourceHandler.get().register(TestView.class, "precompressed", "precompressed.js");
+        String url = JSLoader.PUBLIC_JAVA_RESOURCE_PATH + "precompressed/precompressed.js";
+        try {
+            TestResponse identity = handle(new TestRequest(url));
+            TestResponse brotli = handle(new TestRequest(url).header("Accept-Encoding", "gzip, deflate, br"));
+            TestResponse gzip = handle(new TestRequest(url).header("Accept-Encoding", "gzip"));
+
+            assertNull(identity.headers.get("Content-Encoding"));
+            assertEquals("br", brotli.headers.get("Content-Encoding"));
+            assertEquals("gzip", gzip.headers.get("Content-Encoding"));
+            assertArrayEquals(TestView.class.getResourceAsStream("precompressed.js").readAllBytes(),
+                    identity.body.toByteArray());
+            assertArrayEquals(TestView.class.getResourceAsStream("precompressed.js.br").readAllBytes(),
+                    brotli.body.toByteArray());
+            assertArrayEquals(TestView.class.getResourceAsStream("precompressed.js.gz").readAllBytes(),
+                    gzip.body.toByteArray());
+            for (TestResponse response : List.of(identity, brotli, gzip)) {
+                assertEquals(200, response.status);
+                assertEquals("Accept-Encoding", response.headers.get("Vary"));
+            }
+            assertEquals(3, Set.of(identity.headers.get("ETag"), brotli.headers.get("ETag"),
+                    gzip.headers.get("ETag")).size());
+
+            // Each entity tag validates its own encoding only
+            TestResponse notModified = handle(new TestRequest(url).header("Accept-Encoding", "br")
+                    .header("If-None-Match", brotli.headers.get("ETag")));
+            assertEquals(304, notModified.status);
+            assertEquals("br", notModified.headers.get("Content-Encoding"));
+            TestResponse modified = handle(new TestRequest(url).header("Accept-Encoding", "gzip")
+                    .header("If-None-Match", brotli.headers.get("ETag")));
+            assertEquals(200, modified.status);
+            assertEquals("gzip", modified.headers.get("Content-Encoding"));
+        } finally {
+            JavaResourceHandler.get().unregister("precompressed");
+        }
+    }
+
+    @Test
+    public void negotiatesEncoding() {
+        assertNull(JavaResourceHandler.negotiate(null, true));
+        assertNull(JavaResourceHandler.negotiate("identity", true));
+        assertNull(JavaResourceHandler.negotiate("gzip;q=0", true));
+        assertEquals("gzip", JavaResourceHandler.negotiate("gzip, deflate, br", false));
+        assertEquals("br", JavaResourceHandler.negotiate("gzip, deflate, br", true));
+        assertEquals("gzip", JavaResourceHandler.negotiate("br;q=0, gzip;q=0.5", true));
+        assertEquals("br", JavaResourceHandler.negotiate("*", true));
+    }
+
+    @Test
+    public void servesByteRanges() throws Exception {
+        String content = handle(new TestRequest(URL)).body.toString();
+
+        TestResponse response = handle(new TestRequest(URL).header("Range", "bytes=2-5"));
+        assertEquals(206, response.status);
+        assertEquals("bytes", response.headers.get("Accept-Ranges"));
+        assertEquals("bytes 2-5/" + content.length(), response.headers.get("Content-Range"));
+        assertEquals(content.substring(2, 6), response.body.toString());
+
+        response = handle(new TestRequest(URL).header("Range", "bytes=" + content.length() + "-"));
+        assertEquals(416, response.status);
+        assertEquals("bytes */" + content.length(), response.headers.get("Content-Range"));
+
+        response = handle(new TestRequest(URL).header("Range", "bytes=2-5").header("If-Range", "\"other\""));
+        assertEquals(200, response.status);
+        assertEquals(content, response.body.toString());
+    }
+
+    @Test
+    public void parsesSingleByteRanges() {
+        assertArrayEquals(new long[]{0, 9}, JavaResourceHandler.parseRange("bytes=0-9", 100));
+        assertArrayEquals(new long[]{90, 99}, JavaResourceHandler.parseRange("bytes=90-", 100));
+        assertArrayEquals(new long[]{80, 99}, JavaResourceHandler.parseRange("bytes=-20", 100));
+        assertArrayEquals(new long[]{50, 99}, JavaResourceHandler.parseRange("bytes=50-200", 100));
+        assertArrayEquals(new long[0], JavaResourceHandler.parseRange("bytes=100-", 100));
+        assertNull(JavaResourceHandler.parseRange("bytes=0-1,5-6", 100));
+        assertNull(JavaResourceHandler.parseRange("bytes=5-1", 100));
+        assertNull(JavaResourceHandler.parseRange("items=0-1", 100));
+    }
+
+    @Test
+    public void servesLargeResourceFromStore(@TempDir Path store) throws Exception {
+        String url = JSLoader.PUBLIC_JAVA_RESOURCE_PATH + "largeresource/jsresource.js";
+        JavaResourceHandler.get().register(TestView.class, "largeresource", "jsresource.js");
+        JSLoader.getResourceCache().clear();
+        JSLoader.setLargeResourceStore(store);
+        JSLoader.setLargeResourceThreshold(10);
+        try {
+            byte[] content = TestView.class.getResourceAsStream("jsresource.js").readAllBytes();
+            TestResponse response = handle(new TestRequest(url).header("Accept-Encoding", "gzip"));
+            assertEquals(200, response.status);
+            assertNull(response.headers.get("Content-Encoding"));
+            assertArrayEquals(content, response.body.toByteArray());
+            assertEquals(0, JSLoader.getResourceCache().getSize());
+
+            response = handle(new TestRequest(url).header("Range", "bytes=-4"));
+            assertEquals(206, response.status);
+            assertArrayEquals(Arrays.copyOfRange(content, content.length - 4, content.length),
+                    response.body.toByteArray());
+
+            String eTag = response.headers.get("ETag");
+            assertEquals(304, handle(new TestRequest(url).header("If-None-Match", eTag)).status);
+        } finally {
+            JSLoader.setLargeResourceStore(null);
+            JSLoader.setLargeResourceThreshold(JSLoader.DEFAULT_LARGE_RESOURCE_THRESHOLD);
+            JSLoader.getResourceCache().clear();
+        }
+    }
+
+    @Test
+    public void extractsJarEntryUnderContentHash(@TempDir Path dir) throws Exception {
+        byte[] content = new byte[100_000];
+        new Random(1).nextBytes(content);
+        Path jar = dir.resolve("assets.jar");
+        try (JarOutputStream out = new JarOutputStream(Files.newOutputStream(jar))) {
+            out.putNextEntry(new JarEntry("wasm/engine.wasm"));
+            out.write(content);
+        }
+        URL entry = new URL("jar:" + jar.toUri() + "!/wasm/engine.wasm");
+        assertEquals(content.length, ClasspathResource.size(entry));
+
+        ClasspathResource resource = ClasspathResource.extract(entry, dir.resolve("store"));
+        assertNull(resource.getContent());
+        assertEquals(content.length, resource.getLength());
+        assertArrayEquals(content, Files.readAllBytes(resource.getFile()));
+        assertEquals(resource.getETag(), "\"" + resource.getFile().getFileName().toString()
+                .replace(".wasm", "") + "\"");
+        assertEquals(ClasspathResource.load(entry).getETag(), resource.getETag());
+
+        // Extracted again, e.g. after eviction from the cache, while the first copy may be streaming
+        long modified = Files.getLastModifiedTime(resource.getFile()).toMillis();
+        Files.setLastModifiedTime(resource.getFile(), FileTime.fromMillis(modified - 10_000));
+        ClasspathResource again = ClasspathResource.extract(entry, dir.resolve("store"));
+        assertEquals(resource.getFile(), again.getFile());
+        assertEquals(modified - 10_000, Files.getLastModifiedTime(again.getFile()).toMillis());
+        try (Stream<Path> files = Files.list(dir.resolve("store"))) {
+            assertEquals(1, files.count());
+        }
+    }
+
+    @Test
+    public void readsSizeOfFileResource(@TempDir Path dir) throws Exception {
+        Path file = Files.write(dir.resolve("engine.wasm"), new byte[1234]);
+
+        assertEquals(1234, ClasspathResource.size(file.toUri().toURL()));
+    }
+
+    @Test
+    public void metricsRecordServedResources() throws Exception {
+        List<String> served = new ArrayList<>();
+        JSLoader.setMetrics(new LoaderMetrics() {
+            @Override
+            public void resourceServed(String path, int status, long bytes, long nanos) {
+                served.add(path + " " + status + " " + bytes);
+            }
+
+            @Override
+            public void resourceNotFound(String path) {
+                served.add(path + " not found");
+            }
+        });
+        try {
+            long length = handle(new TestRequest(URL)).body.size();
+            handle(new TestRequest(URL).header("Range", "bytes=0-1"));
+            String missing = JSLoader.PUBLIC_JAVA_RESOURCE_PATH + "jsresource/missing.js";
+            assertFalse(handle(new TestRequest(missing)).handled);
+            handle(new TestRequest("/VAADIN/other.js"));
+
+            assertEquals(List.of(URL + " 200 " + length, URL + " 206 2", missing + " not found"), served);
+        } finally {
+            JSLoader.setMetrics(null);
+        }
+    }
+
+    @Test
+    public void indexesDeclaredResources() throws Exception {
+        JSLoader.registerJavaResource(TestView.class, "indexed", "jsresource.js");
+
+        ResourceIndex index = JSLoader.indexJavaResources();
+        ResourceIndex.Entry entry = index.get(JSLoader.PUBLIC_JAVA_RESOURCE_PATH + "indexed/jsresource.js");
+        assertEquals("application/javascript", entry.getContentType());
+        assertEquals(TestView.class.getResourceAsStream("jsresource.js").readAllBytes().length, entry.getSize());
+        assertEquals(64, entry.getHash().length());
+        assertEquals(IntegrityManifest.compute(TestView.class.getResourceAsStream("jsresource.js").readAllBytes()),
+                entry.getIntegrity());
+        assertNotNull(JSLoader.getResourceCache().getValidators(TestView.class, "jsresource.js"));
+
+        JSLoader.registerJavaResource(TestView.class, "misdeclared", "missing.js");
+        try {
+            IllegalStateException e = assertThrows(IllegalStateException.class, JSLoader::indexJavaResources);
+            assertTrue(e.getMessage().contains(JSLoader.PUBLIC_JAVA_RESOURCE_PATH + "misdeclared/missing.js"),
+                    e.getMessage());
+        } finally {
+            // The handler is shared by all tests of the JVM
+            JavaResourceHandler.get().unregister("misdeclared");
+        }
+        JSLoader.indexJavaResources();
+    }
+
+    @Test
+    public void mapsContentTypes() {
+        assertEquals("application/wasm", JavaResourceHandler.getContentTypeForFileExtension("engine.wasm"));
+        assertEquals("font/woff2", JavaResourceHandler.getContentTypeForFileExtension("fonts/Inter.WOFF2"));
+        assertEquals("image/svg+xml", JavaResourceHandler.getContentTypeForFileExtension("icon.svg"));
+        assertEquals("application/json", JavaResourceHandler.getContentTypeForFileExtension("lib.js.map"));
+        assertEquals("text/plain", JavaResourceHandler.getContentTypeForFileExtension("LICENSE"));
+        assertTrue(JavaResourceHandler.isCompressible("engine.wasm"));
+        assertFalse(JavaResourceHandler.isCompressible("font.woff2"));
+    }
+
+    @Test
+    public void sessionWithHandlerCanBeSerialized() throws Exception {
+        VaadinSession session = new TestSession();
+        JavaResourceHandler.get().registerTo(session);
+        assertTrue(session.getRequestHandlers().contains(JavaResourceHandler.get()));
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(session);
+        }
+        VaadinSession copy;
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            copy = (VaadinSession) in.readObject();
+        }
+        assertTrue(copy.getRequestHandlers().contains(JavaResourceHandler.get()));
+    }
+
+    static TestResponse handle(TestRequest request) throws Exception {
+        TestResponse response = new TestResponse();
+        response.handled = JavaResourceHandler.get().handleRequest(null, request.proxy(), response.proxy());
+        return response;
+    }
+
+    /** Minimal request stub, only implements what the handler uses. */
+    static class TestRequest {
+        final String pathInfo;
+        final Map<String, String> headers = new HashMap<>();
+        final Map<String, Long> dates = new HashMap<>();
+
+        TestRequest(String pathInfo) {
+            this.pathInfo = pathInfo;
+        }
+
+        TestRequest header(String name, String value) {
+            headers.put(name, value);
+            return this;
+        }
+
+        TestRequest date(String name, long value) {
+            dates.put(name, value);
+            return this;
+        }
+
+        VaadinRequest proxy() {
+            return (VaadinRequest) Proxy.newProxyInstance(getClass().getClassLoader(),
+                    new Class<?>[]{VaadinRequest.class}, (p, method, args) -> {
+                        switch (method.getName()) {
+                            case "getPathInfo":
+                                return pathInfo;
+                            case "getHeader":
+                                return headers.get((String) args[0]);
+                            case "getDateHeader":
+                                return dates.getOrDefault((String) args[0], -1L);
+                            default:
+                                throw new UnsupportedOperationException(method.getName());
+                        }
+                    });
+        }
+    }
+
+    /** Minimal response stub recording what the handler writes. */
+    static class TestResponse {
+        boolean handled;
+        int status = 200;
+        String contentType;
+        final Map<String, String> headers = new HashMap<>();
+        final Map<String, Long> dates = new HashMap<>();
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+
+        VaadinResponse proxy() {
+            return (VaadinResponse) Proxy.newProxyInstance(getClass().getClassLoader(),
+                    new Class<?>[]{VaadinResponse.class}, (p, method, args) -> {
+                        switch (method.getName()) {
+                            case "setStatus":
+                                status = (Integer) args[0];
+                                return null;
+                            case "sendError":
+                                status = (Integer) args[0];
+                                return null;
+                            case "setContentType":
+                                contentType = (String) args[0];
+                                return null;
+                            case "setContentLength":
+                                return null;
+                            case "setHeader":
+                                headers.put((String) args[0], (String) args[1]);
+                                return null;
+                            case "setDateHeader":
+                                dates.put((String) args[0], (Long) args[1]);
+                                return null;
+                            case "getOutputStream":
+                                return body;
+                            default:
+                                throw new UnsupportedOperationException(method.getName());
+                        }
+                    });
+        }
+    }
+}
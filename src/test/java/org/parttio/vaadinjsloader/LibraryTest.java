@@ -0,0 +1,77 @@
+package org.parttio.vaadinjsloader;
+
+import com.vaadin.flow.component.UI;
+import com.vaadin.flow.component.internal.PendingJavaScriptInvocation;
+import elemental.json.JsonArray;
+import elemental.json.JsonObject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class LibraryTest {
+
+    private static final String PATTERN = "/{library}-{version}/{file}";
+
+    private final Library a = new Library("a", "1.0", PATTERN, "a.js");
+    private final Library b = new Library("b", "1.0", PATTERN, "b.js").dependsOn(a);
+    private final Library c = new Library("c", "1.0", PATTERN, "c.mjs").dependsOn(a);
+    private final Library d = new Library("d", "1.0", PATTERN, "d.js", "d.css").dependsOn(b, c);
+
+    @AfterEach
+    public void resetBatching() {
+        JSLoader.setBatching(JSLoader.Batching.NONE);
+    }
+
+    @Test
+    public void resolvesDiamondWithSharedDependencyOnce() {
+        assertEquals(List.of(a, b, c, d), Library.resolve(d));
+        assertEquals(List.of(a, c), Library.resolve(c));
+    }
+
+    @Test
+    public void rejectsCycles() {
+        a.dependsOn(d);
+        assertThrows(IllegalArgumentException.class, () -> Library.resolve(d));
+    }
+
+    @Test
+    public void sendsDiamondAsSingleInvocation() {
+        JSLoader.setBatching(JSLoader.Batching.ROUND_TRIP);
+        UI ui = TestSession.openUI();
+
+        JSLoader.loadLibrary(ui, d);
+        ui.getInternals().getStateTree().runExecutionsBeforeClientResponse();
+
+        List<PendingJavaScriptInvocation> invocations = ui.getInternals().dumpPendingJavaScriptInvocations();
+        assertEquals(1, invocations.size());
+        JsonArray libraries = (JsonArray) invocations.get(0).getInvocation().getParameters().get(0);
+        assertEquals(4, libraries.length());
+        JsonObject first = libraries.getObject(0);
+        assertEquals("a", first.getString("library"));
+        assertFalse(first.hasKey("dependencies"));
+        JsonArray dependencies = libraries.getObject(3).getArray("dependencies");
+        assertEquals("b", dependencies.getString(0));
+        assertEquals("c", dependencies.getString(1));
+    }
+
+    @Test
+    public void skipsLibrariesAlreadyLoaded() {
+        UI ui = TestSession.openUI();
+        JSLoader.loadLibrary(ui, b);
+        ui.getInternals().dumpPendingJavaScriptInvocations();
+
+        JSLoader.register(d);
+        JSLoader.loadLibrary(ui, "d");
+
+        List<PendingJavaScriptInvocation> invocations = ui.getInternals().dumpPendingJavaScriptInvocations();
+        assertEquals(2, invocations.size());
+        assertTrue(JSLoader.isLoaded(ui, "a", "1.0"));
+        assertTrue(JSLoader.isLoaded(ui, "d", "1.0"));
+    }
+}
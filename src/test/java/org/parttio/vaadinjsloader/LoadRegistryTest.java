@@ -0,0 +1,170 @@
+package org.parttio.vaadinjsloader;
+
+import com.vaadin.flow.component.UI;
+import com.vaadin.flow.server.VaadinSession;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class LoadRegistryTest {
+
+    private static final int THREADS = 8;
+    private static final int CYCLES = 100_000;
+
+    @Test
+    public void loadedStateIsPerUI() {
+        UI ui1 = TestSession.openUI();
+        UI ui2 = TestSession.openUI();
+        JSLoader.loadFiles(ui1, "/{library}-{version}/{file}", "mylib", "1.0", "mylib.js");
+
+        assertTrue(JSLoader.isLoaded(ui1, "mylib"));
+        assertTrue(JSLoader.isLoaded(ui1, "mylib", "1.0"));
+        assertFalse(JSLoader.isLoaded(ui1, "mylib", "2.0"));
+        assertFalse(JSLoader.isLoaded(ui2, "mylib"));
+        assertNull(JSLoader.getLoadedVersion(ui2, "mylib"));
+    }
+
+    @Test
+    public void registryIsClearedOnDetach() {
+        UI ui = TestSession.openUI();
+        JSLoader.loadFiles(ui, "/{library}-{version}/{file}", "mylib", "1.0", "mylib.js");
+        assertTrue(JSLoader.isLoaded(ui, "mylib"));
+
+        ui.getInternals().setSession(null);
+        assertFalse(JSLoader.isLoaded(ui, "mylib"));
+    }
+
+    @Test
+    public void loadedStateSurvivesSerialization() throws Exception {
+        TestSession session = new TestSession();
+        UI ui = new UI();
+        ui.getInternals().setSession(session);
+        // Initialized without a request, as a servlet would with one
+        Field uiId = UI.class.getDeclaredField("uiId");
+        uiId.setAccessible(true);
+        uiId.setInt(ui, 1);
+        session.addUI(ui);
+        JSLoader.setBatching(JSLoader.Batching.LIBRARY);
+        try {
+            for (int i = 0; i < 100; i++) {
+                JSLoader.loadFiles(ui, "/{library}-{version}/{file}", "lib" + i, "1." + i, "lib.js");
+            }
+        } finally {
+            JSLoader.setBatching(JSLoader.Batching.NONE);
+        }
+        JSLoader.loadFilesWhenVisible(ui, "/{library}-{version}/{file}", "lazy", "1.0", "lazy.js");
+        assertTrue(JSLoader.isPending(ui, "lazy"));
+        ui.getInternals().dumpPendingJavaScriptInvocations();
+
+        // The session is what a cluster replicates
+        VaadinSession copySession = (VaadinSession) deserialize(serialize(session));
+        UI copy = copySession.getUIById(ui.getUIId());
+
+        for (int i = 0; i < 100; i++) {
+            assertTrue(JSLoader.isLoaded(copy, "lib" + i, "1." + i));
+        }
+        assertFalse(JSLoader.isLoaded(copy, "lib100"));
+        assertFalse(JSLoader.isPending(copy, "lazy"));
+        assertTrue(JSLoader.loadFiles(copy, "/{library}-{version}/{file}", "lib1", "1.1", "lib.js").isDone());
+
+        // The client loader is still known to be installed in the browser
+        JSLoader.setBatching(JSLoader.Batching.LIBRARY);
+        try {
+            JSLoader.loadFiles(copy, "/{library}-{version}/{file}", "lib100", "1.0", "lib.js");
+        } finally {
+            JSLoader.setBatching(JSLoader.Batching.NONE);
+        }
+        String expression = copy.getInternals().dumpPendingJavaScriptInvocations().get(0).getInvocation().getExpression();
+        assertFalse(expression.contains("window.Vaadin.jsloader ="), expression);
+        assertTrue(expression.contains("window.Vaadin.jsloader.load($0)"), expression);
+
+        // Names and versions only, a few bytes of stream overhead per library
+        int size = serialize(LoadRegistry.find(ui)).length;
+        assertTrue(size < 100 * (5 + 4 + 4) + 100, "Serialized registry takes " + size + " bytes");
+    }
+
+    @Test
+    public void heapStaysFlatAfterUICycles() throws Exception {
+        // Warm up so that class loading does not count as growth
+        runCycles(THREADS, 1_000);
+        long before = usedHeapAfterGc();
+
+        List<WeakReference<UI>> lastUIs = runCycles(THREADS, CYCLES);
+
+        for (int i = 0; i < 50 && lastUIs.stream().anyMatch(r -> r.get() != null); i++) {
+            System.gc();
+            Thread.sleep(20);
+        }
+        assertTrue(lastUIs.stream().allMatch(r -> r.get() == null), "Closed UIs must not be retained");
+
+        long growth = usedHeapAfterGc() - before;
+        assertTrue(growth < 16 * 1024 * 1024, "Heap grew by " + growth + " bytes");
+    }
+
+    private static List<WeakReference<UI>> runCycles(int threads, int cycles) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<WeakReference<UI>>> results = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            results.add(executor.submit(() -> {
+                UI ui = null;
+                for (int i = 0; i < cycles / threads; i++) {
+                    ui = TestSession.openUI();
+                    JSLoader.loadFiles(ui, JSLoader.URL_PATTERN_UNPKGCOM, "lib" + (i % 20), "1." + i);
+                    assertEquals("1." + i, JSLoader.getLoadedVersion(ui, "lib" + (i % 20)));
+                    // Closed by detaching, which must clear the registry
+                    LoadRegistry registry = LoadRegistry.find(ui);
+                    ui.getInternals().setSession(null);
+                    assertEquals(0, registry.size());
+                }
+                return new WeakReference<>(ui);
+            }));
+        }
+        List<WeakReference<UI>> refs = new ArrayList<>();
+        for (Future<WeakReference<UI>> result : results) {
+            refs.add(result.get());
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(1, TimeUnit.MINUTES));
+        return refs;
+    }
+
+    private static long usedHeapAfterGc() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(50);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static byte[] serialize(Object object) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(object);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static Object deserialize(byte[] bytes) throws IOException, ClassNotFoundException {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            return in.readObject();
+        }
+    }
+}
@@ -1,12 +1,21 @@
 package org.parttio.vaadinjsloader;
 
+import com.microsoft.playwright.APIResponse;
 import com.microsoft.playwright.Browser;
 import com.microsoft.playwright.BrowserType;
+import com.microsoft.playwright.Locator;
 import com.microsoft.playwright.Page;
 import com.microsoft.playwright.Playwright;
+import com.microsoft.playwright.options.RequestOptions;
 import org.junit.jupiter.api.Test;
 
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
 import static com.microsoft.playwright.assertions.PlaywrightAssertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class MainIT {
 
@@ -56,6 +65,34 @@ public class MainIT {
         }
     }
 
+    @Test
+    public void javaResourceConditionalRequests() {
+        try (Browser browser = playwright.chromium().launch(options)) {
+            Page page = browser.newPage();
+            page.navigate(url);
+            page.getByText("Load library from classpath").first().click();
+            assertThat(page.getByText("script said: Hello from jsresource.js")).isVisible();
+
+            String resourceUrl = "http://localhost:8099/resources/jsresource/jsresource.js";
+            APIResponse response = page.request().get(resourceUrl);
+            assertEquals(200, response.status());
+            String eTag = response.headers().get("etag");
+            String lastModified = response.headers().get("last-modified");
+            assertNotNull(eTag);
+            assertNotNull(lastModified);
+            assertEquals(JSLoader.DEFAULT_RESOURCE_CACHE_CONTROL, response.headers().get("cache-control"));
+
+            response = page.request().get(resourceUrl, RequestOptions.create().setHeader("If-None-Match", eTag));
+            assertEquals(304, response.status());
+
+            response = page.request().get(resourceUrl, RequestOptions.create().setHeader("If-Modified-Since", lastModified));
+            assertEquals(304, response.status());
+
+            response = page.request().get(resourceUrl, RequestOptions.create().setHeader("If-None-Match", "\"stale\""));
+            assertEquals(200, response.status());
+        }
+    }
+
     @Test
     public void localModuleLoads() {
         try (Browser browser = playwright.chromium().launch(options)) { // <5>
@@ -91,4 +128,22 @@ public class MainIT {
             }
         }
     }
-}
\ No newline at end of file
+
+    @Test
+    public void diamondLoadsInCriticalPathTime() {
+        try (Browser browser = playwright.chromium().launch(options)) {
+            Page page = browser.newPage();
+            page.navigate(url);
+            page.getByText("Load diamond").first().click();
+            Locator result = page.getByText(Pattern.compile("diamond a,(b,c|c,b),d loaded in \\d+ms"));
+            assertThat(result).isVisible();
+
+            // All four files are fetched in parallel, so the total time is one
+            // fetch rather than the sum of four, or three with per-level loading
+            Matcher matcher = Pattern.compile("(\\d+)ms").matcher(result.textContent());
+            assertTrue(matcher.find());
+            long millis = Long.parseLong(matcher.group(1));
+            assertTrue(millis < 2 * SlowScriptHandler.DELAY_MS, millis + "ms");
+        }
+    }
+}
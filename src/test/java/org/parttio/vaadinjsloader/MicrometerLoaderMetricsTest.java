@@ -0,0 +1,94 @@
+package org.parttio.vaadinjsloader;
+
+import com.vaadin.flow.component.UI;
+import elemental.json.Json;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationHandler;
+import io.micrometer.observation.ObservationRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class MicrometerLoaderMetricsTest {
+
+    private static final String PATTERN = "/{library}-{version}/{file}";
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    @AfterEach
+    public void reset() {
+        JSLoader.setMetrics(null);
+    }
+
+    @Test
+    public void recordsLoadsAndRegistrySize() {
+        List<String> observed = new ArrayList<>();
+        ObservationRegistry observations = ObservationRegistry.create();
+        observations.observationConfig().observationHandler(new ObservationHandler<>() {
+            @Override
+            public void onStop(Observation.Context context) {
+                observed.add(context.getName() + " " + context.getLowCardinalityKeyValue("library").getValue());
+            }
+
+            @Override
+            public boolean supportsContext(Observation.Context context) {
+                return true;
+            }
+        });
+        JSLoader.setMetrics(new MicrometerLoaderMetrics(registry, observations));
+        UI ui = TestSession.openUI();
+
+        JSLoader.loadFiles(ui, PATTERN, "mylib", "1.0", "a.js");
+        JSLoader.loadFiles(ui, PATTERN, "mylib", "1.0", "a.js");
+        ui.getInternals().dumpPendingJavaScriptInvocations().get(0).complete(Json.instance().parse(
+                "[{'library': 'mylib', 'files': [{'url': '/mylib-1.0/a.js', 'loaded': true, 'startTime': 1, 'duration': 2}]}]"));
+
+        assertEquals(1, registry.get("jsloader.loads").tags("library", "mylib", "skipped", "false").counter().count());
+        assertEquals(1, registry.get("jsloader.loads").tags("library", "mylib", "skipped", "true").counter().count());
+        assertEquals(1, registry.get("jsloader.library.load").tags("outcome", "success").timer().count());
+        assertEquals(2, registry.get("jsloader.file.load").tags("type", "js").timer()
+                .totalTime(TimeUnit.MILLISECONDS), 0.001);
+        assertEquals(List.of("jsloader.load mylib"), observed);
+        assertEquals(1, registry.get("jsloader.registry.libraries").gauge().value());
+
+        ui.getInternals().setSession(null);
+        assertEquals(0, registry.get("jsloader.registry.libraries").gauge().value());
+    }
+
+    @Test
+    public void tagsResourcesByLibraryAndType() throws Exception {
+        JavaResourceHandler.get().register(TestView.class, "jsresource", "jsresource.js");
+        JSLoader.setMetrics(new MicrometerLoaderMetrics(registry));
+
+        JavaResourceHandlerTest.handle(new JavaResourceHandlerTest.TestRequest(
+                JSLoader.PUBLIC_JAVA_RESOURCE_PATH + "jsresource/jsresource.js"));
+        JavaResourceHandlerTest.handle(new JavaResourceHandlerTest.TestRequest(
+                JSLoader.PUBLIC_JAVA_RESOURCE_PATH + "jsresource/missing-1.js"));
+        JavaResourceHandlerTest.handle(new JavaResourceHandlerTest.TestRequest(
+                JSLoader.PUBLIC_JAVA_RESOURCE_PATH + "other/missing-2.js"));
+
+        assertEquals(1, registry.get("jsloader.resource.requests")
+                .tags("library", "jsresource", "type", "js", "status", "200").timer().count());
+        assertEquals(2, registry.get("jsloader.resource.not.found").counter().count());
+        for (Meter meter : registry.getMeters()) {
+            assertTrue(meter.getId().getTags().stream().noneMatch(tag -> tag.getValue().contains("/")),
+                    meter.getId() + " is tagged with a path");
+        }
+    }
+
+    @Test
+    public void derivesTagsFromFingerprintedPaths() {
+        assertEquals("lib", MicrometerLoaderMetrics.libraryOf(JSLoader.PUBLIC_JAVA_RESOURCE_PATH + "lib/lib.0123456789ab.js"));
+        assertEquals("js", MicrometerLoaderMetrics.typeOf(JSLoader.PUBLIC_JAVA_RESOURCE_PATH + "lib/lib.0123456789ab.js"));
+        assertEquals("none", MicrometerLoaderMetrics.libraryOf("/VAADIN/app.js"));
+        assertEquals("none", MicrometerLoaderMetrics.typeOf("/resources/lib/LICENSE"));
+    }
+}
@@ -0,0 +1,59 @@
+package org.parttio.vaadinjsloader;
+
+import com.vaadin.flow.server.VaadinRequest;
+import com.vaadin.flow.server.communication.IndexHtmlResponse;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Proxy;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+public class PreloadListenerTest {
+
+    @Test
+    public void addsPreloadTagsToInitialPage() {
+        JSLoader.preloadFiles("/{library}-{version}/{file}", "preloaded", "1.0", "a.js", "b.mjs", "c.css");
+        JSLoader.preloadJavaResource(TestView.class, "jsresource", "jsresource.js");
+
+        Document document = Document.createShell("");
+        PreloadListener.get().modifyIndexHtmlResponse(new IndexHtmlResponse(request("/"), null, document));
+
+        Element script = document.head().selectFirst("link[href=/preloaded-1.0/a.js]");
+        assertNotNull(script);
+        assertEquals("preload", script.attr("rel"));
+        assertEquals("script", script.attr("as"));
+        Element module = document.head().selectFirst("link[href=/preloaded-1.0/b.mjs]");
+        assertEquals("modulepreload", module.attr("rel"));
+        assertEquals("", module.attr("as"));
+        assertEquals("style", document.head().selectFirst("link[href=/preloaded-1.0/c.css]").attr("as"));
+        assertNotNull(document.head().selectFirst("link[href=" + JSLoader.PUBLIC_JAVA_RESOURCE_PATH + "jsresource/jsresource.js]"));
+    }
+
+    @Test
+    public void skipsPreloadsOfOtherRoutes() {
+        JSLoader.preloadFiles(TestView.class, "/{library}-{version}/{file}", "routelib", "1.0", "a.js");
+
+        Document document = Document.createShell("");
+        PreloadListener.get().modifyIndexHtmlResponse(new IndexHtmlResponse(request("/other"), null, document));
+
+        assertNull(document.head().selectFirst("link[href=/routelib-1.0/a.js]"));
+    }
+
+    private static VaadinRequest request(String pathInfo) {
+        return (VaadinRequest) Proxy.newProxyInstance(PreloadListenerTest.class.getClassLoader(),
+                new Class<?>[]{VaadinRequest.class}, (p, method, args) -> {
+                    switch (method.getName()) {
+                        case "getPathInfo":
+                            return pathInfo;
+                        case "getService":
+                            return null;
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+}
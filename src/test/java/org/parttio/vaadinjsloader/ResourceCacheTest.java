@@ -0,0 +1,72 @@
+package org.parttio.vaadinjsloader;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+public class ResourceCacheTest {
+
+    @Test
+    public void countsHitsAndMisses() throws Exception {
+        ResourceCache cache = new ResourceCache(ResourceCache.DEFAULT_MAX_SIZE);
+
+        ClasspathResource first = cache.get(TestView.class, "jsresource.js");
+        ClasspathResource second = cache.get(TestView.class, "jsresource.js");
+
+        assertNotNull(first);
+        assertArrayEquals(TestView.class.getResourceAsStream("jsresource.js").readAllBytes(), first.getContent());
+        assertEquals(first.getContent().length, cache.getSize());
+        assertEquals(1, cache.getMissCount());
+        assertEquals(1, cache.getHitCount());
+        assertSame(first, second);
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() throws Exception {
+        ResourceCache cache = new ResourceCache(ResourceCache.DEFAULT_MAX_SIZE);
+        int js = cache.get(TestView.class, "jsresource.js").getContent().length;
+        cache.get(TestView.class, "mymodule2.mjs");
+        cache.get(TestView.class, "jsresource.js");
+        assertEquals(2, cache.getMissCount());
+
+        // Only room for the most recently used resource
+        cache.setMaxSize(js);
+        assertEquals(js, cache.getSize());
+        cache.get(TestView.class, "jsresource.js");
+        assertEquals(2, cache.getMissCount());
+        cache.get(TestView.class, "mymodule2.mjs");
+        assertEquals(3, cache.getMissCount());
+    }
+
+    @Test
+    public void keepsValidatorsAfterEviction() throws Exception {
+        ResourceCache cache = new ResourceCache(0);
+        assertNull(cache.getValidators(TestView.class, "jsresource.js"));
+
+        ClasspathResource resource = cache.get(TestView.class, "jsresource.js");
+        ClasspathResource validators = cache.getValidators(TestView.class, "jsresource.js");
+
+        assertEquals(0, cache.getSize());
+        assertNull(validators.getContent());
+        assertEquals(resource.getETag(), validators.getETag());
+        assertEquals(resource.getLastModified(), validators.getLastModified());
+    }
+
+    @Test
+    public void missingResourceIsNotCached() throws Exception {
+        ResourceCache cache = new ResourceCache(ResourceCache.DEFAULT_MAX_SIZE);
+
+        assertNull(cache.get(TestView.class, "missing.js"));
+        assertEquals(0, cache.getSize());
+    }
+
+    @Test
+    public void resolvesNamesLikeClass() {
+        assertEquals("org/parttio/vaadinjsloader/a.js", ResourceCache.resolveName(TestView.class, "a.js"));
+        assertEquals("a/b.js", ResourceCache.resolveName(TestView.class, "/a/b.js"));
+    }
+}
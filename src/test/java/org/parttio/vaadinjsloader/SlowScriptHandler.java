@@ -0,0 +1,49 @@
+package org.parttio.vaadinjsloader;
+
+import com.vaadin.flow.server.RequestHandler;
+import com.vaadin.flow.server.ServiceInitEvent;
+import com.vaadin.flow.server.VaadinRequest;
+import com.vaadin.flow.server.VaadinResponse;
+import com.vaadin.flow.server.VaadinServiceInitListener;
+import com.vaadin.flow.server.VaadinSession;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Serves <code>/slow/{name}.js</code> after a delay of {@link #DELAY_MS}, for
+ * testing parallel loading. The script records its name in
+ * <code>window.slowScripts</code> when evaluated.
+ */
+public class SlowScriptHandler implements RequestHandler, VaadinServiceInitListener {
+
+    static final long DELAY_MS = 500;
+
+    private static final Pattern PATH = Pattern.compile("/slow/([a-z]+)\\.js");
+
+    @Override
+    public void serviceInit(ServiceInitEvent event) {
+        event.addRequestHandler(this);
+    }
+
+    @Override
+    public boolean handleRequest(VaadinSession session, VaadinRequest request, VaadinResponse response) throws IOException {
+        Matcher matcher = request.getPathInfo() != null ? PATH.matcher(request.getPathInfo()) : null;
+        if (matcher == null || !matcher.matches()) {
+            return false;
+        }
+        try {
+            Thread.sleep(DELAY_MS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        byte[] body = ("(window.slowScripts = window.slowScripts || []).push('" + matcher.group(1) + "');")
+                .getBytes(StandardCharsets.UTF_8);
+        response.setContentType("application/javascript");
+        response.setContentLength(body.length);
+        response.getOutputStream().write(body);
+        return true;
+    }
+}
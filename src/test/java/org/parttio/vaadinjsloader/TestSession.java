@@ -0,0 +1,30 @@
+package org.parttio.vaadinjsloader;
+
+import com.vaadin.flow.component.UI;
+import com.vaadin.flow.server.VaadinSession;
+
+/**
+ * Session without a service for testing UIs outside a servlet container.
+ */
+class TestSession extends VaadinSession {
+
+    TestSession() {
+        super(null);
+    }
+
+    /**
+     * Creates a UI attached to a new test session.
+     *
+     * @return the UI
+     */
+    static UI openUI() {
+        UI ui = new UI();
+        ui.getInternals().setSession(new TestSession());
+        return ui;
+    }
+
+    @Override
+    public boolean hasLock() {
+        return true;
+    }
+}
@@ -8,6 +8,8 @@ import com.vaadin.flow.component.html.Paragraph;
 import com.vaadin.flow.component.orderedlayout.VerticalLayout;
 import com.vaadin.flow.router.Route;
 
+import java.util.concurrent.CompletableFuture;
+
 @Route
 public class TestView extends VerticalLayout {
 
@@ -19,6 +21,7 @@ public class TestView extends VerticalLayout {
         add(new Button("Load local module", this::loadLocalModule));
         add(new Button("Load resource module", this::loadResourceModule));
         add(new Button("Load library from classpath", this::loadLibraryFromClasspath));
+        add(new Button("Load diamond", this::loadDiamond));
     }
 
 
@@ -54,19 +57,18 @@ public class TestView extends VerticalLayout {
         String version = "1.0";
         String file = "mylib.js";
         String urlPattern = "/{library}-{version}/{file}";
-        JSLoader.loadFiles(this, urlPattern, library, version, file);
+        UI ui = UI.getCurrent();
+        CompletableFuture<LoadResult> loaded = JSLoader.loadFiles(this, urlPattern, library, version, file);
 
         // Check that the script tag is included
-        UI.getCurrent()
-                .getPage()
+        ui.getPage()
                 .executeJs("return document.querySelector('script[src*=\"" + library + "\"]').src")
                 .then(src -> add(new Paragraph("script loaded "+src.asString())));
 
         // Check that the script is actually loaded and executed
-        UI.getCurrent()
-                .getPage()
+        loaded.thenRun(() -> ui.getPage()
                 .executeJs("return document.querySelector('#mylib').textContent")
-                .then(t -> add(new Paragraph("script said: "+t.asString())));
+                .then(t -> add(new Paragraph("script said: "+t.asString()))));
 
     }
 
@@ -78,15 +80,15 @@ public class TestView extends VerticalLayout {
         String urlPattern = "/{library}-{version}/{file}";
         JSLoader.loadFiles(this, urlPattern, library, version, file);
 
-        // Check that the script tag is included
+        // Check that the module is imported
         UI.getCurrent()
                 .getPage()
-                .executeJs("return document.querySelector('script[src*=\"" + library + "\"]').src")
+                .executeJs("return window.Vaadin.jsloader.whenLoaded($0).then(urls => urls[0])", library)
                 .then(src -> add(new Paragraph("module "+library+" loaded from "+src.asString())));
 
         UI.getCurrent()
                 .getPage()
-                .executeJs("new mymodule.SampleClass2(); return 'mymodule ok';")
+                .executeJs("return window.Vaadin.jsloader.whenLoaded($0).then(() => { new mymodule.SampleClass2(); return 'mymodule ok'; })", library)
                 .then(t -> add(new Paragraph("script said: "+t.asString())));
 
     }
@@ -98,15 +100,15 @@ public class TestView extends VerticalLayout {
         String file = "mymodule2.mjs";
         JSLoader.loadJavaResource(UI.getCurrent(),this.getClass(), library, version, file);
 
-        // Check that the script tag is included
+        // Check that the module is imported
         UI.getCurrent()
                 .getPage()
-                .executeJs("return document.querySelector('script[src*=\"" + library + "\"]').src")
+                .executeJs("return window.Vaadin.jsloader.whenLoaded($0).then(urls => urls[0])", library)
                 .then(src -> add(new Paragraph("module "+library+" loaded from "+src.asString())));
 
         UI.getCurrent()
                 .getPage()
-                .executeJs("new mymodule2.SampleClass2(); return 'mymodule2 ok';")
+                .executeJs("return window.Vaadin.jsloader.whenLoaded($0).then(() => { new mymodule2.SampleClass2(); return 'mymodule2 ok'; })", library)
                 .then(t -> add(new Paragraph("script said: "+t.asString())));
 
     }
@@ -116,19 +118,32 @@ public class TestView extends VerticalLayout {
         // Load some script
         String libraryName = "jsresource";
         String file = "jsresource.js";
-        JSLoader.loadJavaResource(UI.getCurrent(), TestView.class, libraryName, file);
+        UI ui = UI.getCurrent();
+        CompletableFuture<LoadResult> loaded = JSLoader.loadJavaResource(ui, TestView.class, libraryName, file);
 
         // Check that the script tag is included
-        UI.getCurrent()
-                .getPage()
+        ui.getPage()
                 .executeJs("return document.querySelector('script[src*=\"" + libraryName + "\"]').src")
                 .then(src -> add(new Paragraph("script loaded "+src.asString())));
 
         // Check that the script is actually loaded and executed
-        UI.getCurrent()
-                .getPage()
+        loaded.thenRun(() -> ui.getPage()
                 .executeJs("return document.querySelector('#jsresource').textContent")
-                .then(t -> add(new Paragraph("script said: "+t.asString())));
+                .then(t -> add(new Paragraph("script said: "+t.asString()))));
+
+    }
 
+    private void loadDiamond(ClickEvent<Button> buttonClickEvent) {
+        // Each file takes SlowScriptHandler.DELAY_MS to fetch
+        Library a = new Library("a", "1.0", "/slow/{file}", "a.js");
+        Library b = new Library("b", "1.0", "/slow/{file}", "b.js").dependsOn(a);
+        Library c = new Library("c", "1.0", "/slow/{file}", "c.js").dependsOn(a);
+        Library d = new Library("d", "1.0", "/slow/{file}", "d.js").dependsOn(b, c);
+
+        UI ui = UI.getCurrent();
+        JSLoader.loadLibrary(ui, d).thenAccept(result -> ui.getPage()
+                .executeJs("return window.slowScripts.join(',')")
+                .then(order -> add(new Paragraph("diamond " + order.asString() + " loaded in "
+                        + Math.round(result.getFiles().get(0).getDuration()) + "ms"))));
     }
 }
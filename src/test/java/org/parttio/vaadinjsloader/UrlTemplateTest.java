@@ -0,0 +1,49 @@
+package org.parttio.vaadinjsloader;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+public class UrlTemplateTest {
+
+    @Test
+    public void expandsStandardPlaceholders() {
+        UrlTemplate template = UrlTemplate.compile(JSLoader.CDNJS);
+        assertSame(template, UrlTemplate.compile(JSLoader.CDNJS));
+        assertEquals("https://cdnjs.cloudflare.com/ajax/libs/jquery/3.7.1/jquery.min.js",
+                template.expand("jquery", "3.7.1", "jquery.min.js"));
+        assertEquals(List.of("https://unpkg.com/three@0.158.0"),
+                JSLoader.buildUrls(JSLoader.URL_PATTERN_UNPKGCOM, "three", "0.158.0"));
+    }
+
+    @Test
+    public void doesNotReplacePlaceholdersInValues() {
+        UrlTemplate template = UrlTemplate.compile("/{library}/{version}/{file}");
+        assertEquals("/lib/1.0/{version}.js", template.expand("lib", "1.0", "{version}.js"));
+        assertEquals("/{file}/1.0/{file}", template.expand("{file}", "1.0", null));
+    }
+
+    @Test
+    public void expandsExtraPlaceholders() {
+        UrlTemplate template = UrlTemplate.compile("https://cdn.example.com/{library}@{version}/{file}{min}.{ext}?v={x");
+        assertEquals(Set.of("library", "version", "file", "min", "ext"), template.getPlaceholders());
+        assertEquals("https://cdn.example.com/chart@4.4.0/chart.min.js?v={x", template.expand(
+                Map.of("library", "chart", "version", "4.4.0", "file", "chart", "min", ".min", "ext", "js")));
+        assertEquals("https://cdn.example.com/chart@4.4.0/chart{min}.{ext}?v={x",
+                template.expand("chart", "4.4.0", "chart"));
+    }
+
+    @Test
+    public void encodesMarkedPlaceholders() {
+        UrlTemplate template = UrlTemplate.compile("/{library}/{file:encoded}");
+        assertEquals("/@scope/pkg/dist/my%20file%C3%A4%F0%9F%98%80.js%3F",
+                template.expand("@scope/pkg", "1.0", "dist/my fileä😀.js?"));
+        assertEquals("a/b%25c", UrlTemplate.encode("a/b%c"));
+        assertEquals("/x/{file:encoded}", template.expand("x", "1.0", null));
+    }
+}
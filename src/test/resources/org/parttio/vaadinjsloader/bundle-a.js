@@ -0,0 +1,2 @@
+window.bundled = [];
+window.bundled.push("a")
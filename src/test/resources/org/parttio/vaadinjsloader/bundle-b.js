@@ -0,0 +1 @@
+window.bundled.push("b");
\ No newline at end of file
@@ -0,0 +1,2 @@
+// Served with precompressed siblings
+window.precompressed = true;